@@ -0,0 +1,238 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.benchmarks;
+
+import com.ppfs.ppfs_libs.models.message.ComponentCache;
+import com.ppfs.ppfs_libs.models.message.MessageTemplate;
+import com.ppfs.ppfs_libs.models.message.Placeholders;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.TextColor;
+import net.kyori.adventure.text.format.TextDecoration;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Сравнение прежнего разбора тегов (regex {@link Matcher} и два {@link ArrayDeque} на строку)
+ * с {@link MessageTemplate}, построенным на TagLexer.
+ * Бенчмарки с {@link CacheDisabled} измеряют сам разбор и сборку компонента без {@link ComponentCache}.
+ * Запуск: {@code mvn -Pjmh package exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagParserBenchmark {
+
+    @Param({
+            "<gray>Баланс: <gold><bold>1000</bold></gold> монет",
+            "<red>Ошибка:</red> <white>недостаточно прав для <yellow><player></yellow></white>",
+            "<dark_gray>» <aqua>Уровень <level></aqua> <gray>| <green>Опыт: <exp>/<max_exp></green></gray>"
+    })
+    private String line;
+
+    private Placeholders placeholders;
+    private MessageTemplate template;
+    private String substituted;
+
+    @Setup
+    public void setup() {
+        placeholders = new Placeholders()
+                .add("player", "PPFS")
+                .add("level", "42")
+                .add("exp", "1337")
+                .add("max_exp", "2000");
+        template = MessageTemplate.compile(line);
+        substituted = substitute(line);
+    }
+
+    /**
+     * Отключает {@link ComponentCache}: при нулевом весе записи вытесняются сразу после загрузки.
+     * Каждый бенчмарк выполняется в отдельном форке, поэтому размер кэша не восстанавливается.
+     */
+    @State(Scope.Benchmark)
+    public static class CacheDisabled {
+        @Setup
+        public void setup() {
+            ComponentCache.getInstance().setMaximumWeight(0);
+        }
+    }
+
+    private static String substitute(String line) {
+        return line
+                .replace("<player>", "PPFS")
+                .replace("<level>", "42")
+                .replace("<exp>", "1337")
+                .replace("<max_exp>", "2000");
+    }
+
+    /**
+     * Прежний путь: подстановка плейсхолдеров в строку и разбор тегов при каждом рендере.
+     */
+    @Benchmark
+    public Component legacyRender() {
+        return LegacyParser.parse(substitute(line));
+    }
+
+    /**
+     * Прежний разбор готовой строки: regex и стеки стилей.
+     */
+    @Benchmark
+    public Component legacyParse() {
+        return LegacyParser.parse(substituted);
+    }
+
+    /**
+     * Разбор той же строки лексером и сборка компонента без кэша, прямой аналог {@link #legacyParse()}.
+     */
+    @Benchmark
+    public Component lexerParse(CacheDisabled cacheDisabled) {
+        return MessageTemplate.parse(substituted);
+    }
+
+    /**
+     * Компиляция шаблона лексером, выполняется один раз на строку сообщения.
+     */
+    @Benchmark
+    public MessageTemplate templateCompile() {
+        return MessageTemplate.compile(line);
+    }
+
+    /**
+     * Рендер заранее скомпилированного шаблона. Для строк без плейсхолдеров и повторяющихся значений
+     * результат берётся из {@link ComponentCache}, так что измеряется попадание в кэш.
+     */
+    @Benchmark
+    public void templateRender(Blackhole blackhole) {
+        template.render(placeholders, null, blackhole::consume);
+    }
+
+    /**
+     * Рендер скомпилированного шаблона без кэша: для строк с плейсхолдерами компонент собирается заново
+     * при каждом вызове, прямой аналог {@link #legacyRender()}. Строка без плейсхолдеров собирается
+     * один раз при компиляции, её разбор сравнивается через {@link #lexerParse(CacheDisabled)}.
+     */
+    @Benchmark
+    public void templateRenderUncached(CacheDisabled cacheDisabled, Blackhole blackhole) {
+        template.render(placeholders, null, blackhole::consume);
+    }
+
+    /**
+     * Копия разбора тегов из Message до перехода на TagLexer.
+     */
+    static final class LegacyParser {
+        private static final Pattern TAG_PATTERN = Pattern.compile("<(/?)([a-zA-Z_#0-9]+)>");
+
+        static Component parse(String message) {
+            Component result = Component.empty();
+            result = result.style(style -> style.decoration(TextDecoration.ITALIC, false));
+            Deque<TextColor> colorStack = new ArrayDeque<>();
+            Deque<TextDecoration> decorationStack = new ArrayDeque<>();
+
+            Matcher matcher = TAG_PATTERN.matcher(message);
+            int lastEnd = 0;
+
+            while (matcher.find()) {
+                String textBeforeTag = message.substring(lastEnd, matcher.start());
+                if (!textBeforeTag.isEmpty()) {
+                    Component textComponent = Component.text(textBeforeTag);
+                    applyStyles(colorStack, decorationStack, textComponent);
+                    result = result.append(textComponent);
+                }
+
+                String tagType = matcher.group(1);
+                String tagName = matcher.group(2);
+
+                if (tagType.isEmpty()) {
+                    handleOpeningTag(colorStack, decorationStack, tagName);
+                } else {
+                    handleClosingTag(colorStack, decorationStack, tagName);
+                }
+                lastEnd = matcher.end();
+            }
+
+            String remainingText = message.substring(lastEnd);
+            if (!remainingText.isEmpty()) {
+                Component textComponent = Component.text(remainingText);
+                applyStyles(colorStack, decorationStack, textComponent);
+                result = result.append(textComponent);
+            }
+            return result;
+        }
+
+        private static void applyStyles(Deque<TextColor> colorStack, Deque<TextDecoration> decorationStack, Component textComponent) {
+            if (!colorStack.isEmpty()) {
+                textComponent = textComponent.color(colorStack.peek());
+            }
+            for (TextDecoration decoration : decorationStack) {
+                textComponent = textComponent.decorate(decoration);
+            }
+        }
+
+        private static void handleOpeningTag(Deque<TextColor> colorStack, Deque<TextDecoration> decorationStack, String tagName) {
+            TextColor color = getTextColor(tagName);
+            if (color != null) {
+                colorStack.push(color);
+            } else {
+                TextDecoration decoration = getTextDecoration(tagName);
+                if (decoration != null) {
+                    decorationStack.push(decoration);
+                }
+            }
+        }
+
+        private static void handleClosingTag(Deque<TextColor> colorStack, Deque<TextDecoration> decorationStack, String tagName) {
+            TextColor color = getTextColor(tagName);
+            if (color != null && !colorStack.isEmpty()) {
+                colorStack.pop();
+            } else {
+                TextDecoration decoration = getTextDecoration(tagName);
+                if (decoration != null && !decorationStack.isEmpty()) {
+                    decorationStack.pop();
+                }
+            }
+        }
+
+        private static TextColor getTextColor(String tagName) {
+            return switch (tagName.toLowerCase()) {
+                case "red" -> TextColor.color(0xFF5555);
+                case "green" -> TextColor.color(0x55FF55);
+                case "blue" -> TextColor.color(0x5555FF);
+                case "yellow" -> TextColor.color(0xFFFF55);
+                case "aqua" -> TextColor.color(0x55FFFF);
+                case "gold" -> TextColor.color(0xFFAA00);
+                case "gray" -> TextColor.color(0xAAAAAA);
+                case "dark_red" -> TextColor.color(0xAA0000);
+                case "dark_green" -> TextColor.color(0x00AA00);
+                case "dark_blue" -> TextColor.color(0x0000AA);
+                case "dark_aqua" -> TextColor.color(0x00AAAA);
+                case "dark_gray" -> TextColor.color(0x555555);
+                case "dark_purple" -> TextColor.color(0xAA00AA);
+                case "light_purple" -> TextColor.color(0xFF55FF);
+                case "white" -> TextColor.color(0xFFFFFF);
+                case "black" -> TextColor.color(0x000000);
+                default -> null;
+            };
+        }
+
+        private static TextDecoration getTextDecoration(String tagName) {
+            return switch (tagName) {
+                case "bold" -> TextDecoration.BOLD;
+                case "italic" -> TextDecoration.ITALIC;
+                case "underline" -> TextDecoration.UNDERLINED;
+                case "strikethrough" -> TextDecoration.STRIKETHROUGH;
+                case "obfuscated" -> TextDecoration.OBFUSCATED;
+                default -> null;
+            };
+        }
+    }
+}
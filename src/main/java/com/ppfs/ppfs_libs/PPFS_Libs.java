@@ -5,11 +5,15 @@
 package com.ppfs.ppfs_libs;
 
 import com.ppfs.ppfs_libs.listeners.menu.MenuListener;
+import com.ppfs.ppfs_libs.service.AsyncClickService;
+import com.ppfs.ppfs_libs.service.SkullProfileResolver;
 import lombok.Getter;
 import org.bstats.bukkit.Metrics;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+
 public final class PPFS_Libs extends JavaPlugin {
     @Getter
     private static PPFS_Libs instance;
@@ -23,6 +27,15 @@ public final class PPFS_Libs extends JavaPlugin {
         metrics = new Metrics(this, 24257);
 
         registerListeners();
+
+        File skulls = new File(getDataFolder(), "skulls.dat");
+        getServer().getScheduler().runTaskAsynchronously(this, () -> SkullProfileResolver.getInstance().load(skulls));
+    }
+
+    @Override
+    public void onDisable() {
+        AsyncClickService.getInstance().shutdown();
+        SkullProfileResolver.getInstance().save();
     }
 
     private void registerListeners(){
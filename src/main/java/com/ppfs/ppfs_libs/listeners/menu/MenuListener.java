@@ -6,75 +6,143 @@ package com.ppfs.ppfs_libs.listeners.menu;
 
 import com.ppfs.ppfs_libs.models.menu.Menu;
 import com.ppfs.ppfs_libs.models.menu.slots.Slot;
+import com.ppfs.ppfs_libs.service.AsyncClickService;
+import com.ppfs.ppfs_libs.service.ClickLimiter;
 import com.ppfs.ppfs_libs.service.MenuService;
+import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.*;
 import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.InventoryView;
 
 public class MenuListener implements Listener {
 
+    /**
+     * Возвращает меню, открытое у игрока. Меню определяется по владельцу верхнего инвентаря вида,
+     * запись индекса {@link MenuService#getViewedMenu(java.util.UUID)} сверяется с ним
+     * и исправляется, если устарела.
+     */
+    private static Menu menuOf(HumanEntity player, InventoryView view) {
+        if (view == null || !(view.getTopInventory().getHolder() instanceof Menu menu)) return null;
+        MenuService service = menu.getMenuService();
+        if (service != null) {
+            Menu indexed = service.getViewedMenu(player.getUniqueId());
+            if (indexed != menu) {
+                if (indexed != null) service.clearViewedMenu(player.getUniqueId(), indexed);
+                service.setViewedMenu(player.getUniqueId(), menu);
+            }
+        }
+        return menu;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onInventoryOpen(InventoryOpenEvent event) {
+        if (event.getInventory().getHolder() instanceof Menu menu && menu.getMenuService() != null) {
+            menu.getMenuService().setViewedMenu(event.getPlayer().getUniqueId(), menu);
+        }
+    }
 
     @EventHandler
     private void onInventoryDrag(InventoryDragEvent event) {
-        if (event.getInventory().getHolder() instanceof Menu menu) {
-            event.setCancelled(menu.getInventoryDrag().run(event));
-        }
+        Menu menu = menuOf(event.getWhoClicked(), event.getView());
+        if (menu == null) return;
+        event.setCancelled(menu.getInventoryDrag().run(event));
     }
 
     @EventHandler
     private void onInventoryClick(InventoryClickEvent event) {
-        if (event.getInventory().getHolder() instanceof Menu menu) {
-            if (event.getClickedInventory() == null) {
-                menu.getOutsideClick().run(event);
-                return;
-            }else if (event.getClickedInventory().equals(event.getWhoClicked().getInventory())) {
-                menu.getOwnInventoryClick().run(event);
-                return;
-            }
-            menu.getInventoryClick().run(event);
-            Slot slot = menu.getSlot(event.getSlot());
+        Menu menu = menuOf(event.getWhoClicked(), event.getView());
+        if (menu == null) return;
 
-            if (slot!=null)
-                slot.getListener().run(event);
+        if (event.getClickedInventory() == null) {
+            menu.getOutsideClick().run(event);
+            return;
+        }else if (event.getClickedInventory().equals(event.getWhoClicked().getInventory())) {
+            menu.getOwnInventoryClick().run(event);
+            return;
+        }
+        if (AsyncClickService.getInstance().isInFlight(menu, event.getSlot())) {
+            event.setCancelled(true);
+            return;
+        }
+        Slot slot = menu.getSlot(event.getSlot());
+        boolean allowed = ClickLimiter.getInstance().tryClick(event, menu, event.getSlot(),
+                menu.getClickLimit(), slot != null ? slot.getClickLimit() : null, limited -> replayClick(menu, limited));
+        if (allowed)
+            handleClick(menu, event);
 
-            boolean interact = menu.isTakeItems();
-            if (!interact)
-                event.setCancelled(true);
+        boolean interact = menu.isTakeItems() && allowed && (slot == null || slot.getAsyncListener() == null);
+        if (!interact)
+            event.setCancelled(true);
+    }
+
+    private static void handleClick(Menu menu, InventoryClickEvent event) {
+        if (AsyncClickService.getInstance().isInFlight(menu, event.getSlot())) {
+            event.setCancelled(true);
+            return;
         }
+        menu.getInventoryClick().run(event);
+        Slot slot = menu.getSlot(event.getSlot());
 
+        if (slot == null) return;
+        slot.getListener().run(event);
+        if (slot.getAsyncListener() != null) {
+            event.setCancelled(true);
+            AsyncClickService.getInstance().submit(menu, event.getSlot(), (Player) event.getWhoClicked(),
+                    event.getClick(), slot.getAsyncListener());
+        }
+    }
+
+    /**
+     * Выполняет отложенный ограничителем клик. Событие создаётся заново по текущему виду инвентаря игрока
+     * и сразу отменено: сервер его не обрабатывает, поэтому изменения предметов и курсора через него не применяются.
+     */
+    private static void replayClick(Menu menu, ClickLimiter.PendingClick click) {
+        InventoryClickEvent event = new InventoryClickEvent(click.player().getOpenInventory(),
+                InventoryType.SlotType.CONTAINER, click.slot(), click.click(), InventoryAction.NOTHING);
+        event.setCancelled(true);
+        handleClick(menu, event);
     }
 
     @EventHandler
     private void onInventoryClose(InventoryCloseEvent event) {
-        if (event.getInventory().getHolder() instanceof Menu menu) {
-            menu.getInventoryClose().run(event);
-            if (event.getReason() == InventoryCloseEvent.Reason.PLAYER &&  !menu.isCanBeClosed()){
-                menu.open((Player) event.getPlayer());
-                return;
-            }
-            menu.getMenuService().onInventoryClose(event);
+        if (!(event.getView().getTopInventory().getHolder() instanceof Menu menu)) return;
+        if (menu.getMenuService() != null) menu.getMenuService().clearViewedMenu(event.getPlayer().getUniqueId(), menu);
+        ClickLimiter.getInstance().reset(event.getPlayer().getUniqueId(), menu);
+
+        menu.getInventoryClose().run(event);
+        if (event.getReason() == InventoryCloseEvent.Reason.PLAYER &&  !menu.isCanBeClosed()){
+            menu.open((Player) event.getPlayer());
+            return;
         }
+        if (menu.getMenuService() != null) menu.getMenuService().onInventoryClose(event);
     }
 
     @EventHandler
     private void onInteractItem(InventoryInteractEvent event) {
-        if (event.getInventory().getHolder() instanceof Menu menu) {
-            event.setCancelled(menu.getInventoryInteract().run(event));
+        Menu menu = menuOf(event.getWhoClicked(), event.getView());
+        if (menu == null) return;
+        event.setCancelled(menu.getInventoryInteract().run(event));
 
-            boolean interact = menu.isTakeItems();
-            if (!interact)
-                event.setCancelled(true);
-        }
+        boolean interact = menu.isTakeItems();
+        if (!interact)
+            event.setCancelled(true);
     }
 
     @EventHandler
     private void onDropItem(PlayerDropItemEvent event) {
-        if (event.getPlayer().getInventory().getHolder() instanceof Menu menu) {
-            event.setCancelled(menu.getInventoryDrop().run(event));
-        }
+        Menu menu = menuOf(event.getPlayer(), event.getPlayer().getOpenInventory());
+        if (menu == null) return;
+        event.setCancelled(menu.getInventoryDrop().run(event));
+    }
 
+    @EventHandler
+    private void onQuit(PlayerQuitEvent event) {
+        ClickLimiter.getInstance().invalidate(event.getPlayer().getUniqueId());
     }
 
 }
@@ -0,0 +1,46 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.menu;
+
+/**
+ * Ограничение частоты кликов по алгоритму token bucket.
+ * @param burst сколько кликов подряд разрешено без ожидания.
+ * @param perSecond сколько кликов в секунду восстанавливается.
+ * @param mode что делать с кликами сверх лимита.
+ */
+public record ClickLimit(int burst, double perSecond, Mode mode) {
+
+    public ClickLimit {
+        if (burst < 1) throw new IllegalArgumentException("burst must be positive: " + burst);
+        if (perSecond <= 0) throw new IllegalArgumentException("perSecond must be positive: " + perSecond);
+        if (mode == null) throw new IllegalArgumentException("mode is null");
+    }
+
+    /**
+     * Лимит, отбрасывающий клики сверх нормы.
+     * @param burst сколько кликов подряд разрешено.
+     * @param perSecond скорость восстановления.
+     * @return лимит.
+     */
+    public static ClickLimit drop(int burst, double perSecond) {
+        return new ClickLimit(burst, perSecond, Mode.DROP);
+    }
+
+    /**
+     * Лимит, объединяющий клики сверх нормы: выполняется только последний из них,
+     * когда восстановится разрешение.
+     * @param burst сколько кликов подряд разрешено.
+     * @param perSecond скорость восстановления.
+     * @return лимит.
+     */
+    public static ClickLimit coalesce(int burst, double perSecond) {
+        return new ClickLimit(burst, perSecond, Mode.COALESCE);
+    }
+
+    public enum Mode {
+        DROP,
+        COALESCE
+    }
+}
@@ -1,8 +1,12 @@
 package com.ppfs.ppfs_libs.models.menu;
 
+import com.ppfs.ppfs_libs.PPFS_Libs;
 import com.ppfs.ppfs_libs.models.menu.slots.Slot;
 import com.ppfs.ppfs_libs.models.menu.slots.actions.*;
+import com.ppfs.ppfs_libs.models.message.PlaceholderScope;
+import com.ppfs.ppfs_libs.models.message.Placeholders;
 import com.ppfs.ppfs_libs.service.MenuService;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.bukkit.Bukkit;
@@ -10,15 +14,22 @@ import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 @Setter
 @Getter
 public class Menu implements Serializable, InventoryHolder {
+    /**
+     * Начиная с этого числа изменившихся слотов меню записывается целиком одним {@code setContents}.
+     */
+    private static final int BULK_THRESHOLD = 8;
 
     protected MenuService menuService;
 
@@ -26,10 +37,32 @@ public class Menu implements Serializable, InventoryHolder {
     private final String id;
     private boolean canBeClosed = true;
     private boolean takeItems = false;
+    private ClickLimit clickLimit;
 
     private transient Inventory inventory;
+    private transient PlaceholderScope placeholderScope;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient ItemStack[] rendered;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient Player renderPlayer;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient ItemStack[] buffer;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient BitSet changes;
 
-    private HashMap<Integer, Slot> slots;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Slot[] slots;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private BitSet occupied;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient SlotMap slotView;
 
     private OnClose inventoryClose;
     private OnClick outsideClick;
@@ -42,60 +75,272 @@ public class Menu implements Serializable, InventoryHolder {
     public Menu(String id, String title, int rows, Plugin plugin) {
         this.id = id;
         this.title = title;
-        this.slots = new HashMap<>();
         this.inventory = Bukkit.createInventory(this, rows, title);
+        this.slots = new Slot[inventory.getSize()];
+        this.occupied = new BitSet(slots.length);
+        this.rendered = new ItemStack[inventory.getSize()];
+        this.placeholderScope = PlaceholderScope.plugin(plugin).child(new Placeholders());
+    }
+
+    /**
+     * Возвращает плейсхолдеры уровня меню, общие для всех слотов.
+     * @return плейсхолдеры меню.
+     */
+    public Placeholders getPlaceholders() {
+        return placeholderScope.getPlaceholders();
     }
 
     public Menu clearMenu() {
-        slots.clear();
+        for (int position = occupied.nextSetBit(0); position >= 0; position = occupied.nextSetBit(position + 1)) {
+            slots[position].detach(this, position);
+        }
+        Arrays.fill(slots, null);
+        occupied.clear();
+        if (slotView != null) slotView.reset();
         inventory.clear();
+        Arrays.fill(rendered, null);
         return this;
     }
 
 
     public Slot getSlot(int slot) {
-        return slots.get(slot);
+        if (slot < 0 || slot >= slots.length) return null;
+        return slots[slot];
     }
 
     public Menu addSlot(int position, Slot slot) {
+        if (position < 0 || position >= slots.length) {
+            throw new IllegalArgumentException("Позиция слота вне инвентаря: " + position);
+        }
+        if (slots[position] != null && slots[position] != slot) slots[position].detach(this, position);
         slot.setPosition(position);
-        slots.put(position, slot);
+        slots[position] = slot;
+        occupied.set(position);
+        if (slotView != null) slotView.sync(position, slot);
+        slot.attach(this, position);
         return this;
     }
 
     public Menu addSlot(Slot slot) {
         int pos = slot.getPosition();
-        if (pos == -1) pos = inventory.firstEmpty();
-        if (pos == -1) return this;
+        if (pos == -1) pos = occupied.nextClearBit(0);
+        if (pos >= slots.length) return this;
         addSlot(pos, slot);
         return this;
     }
 
+    /**
+     * Удаляет слот с указанной позиции.
+     * @param position позиция слота.
+     * @return обновленный экземпляр Menu.
+     */
+    public Menu removeSlot(int position) {
+        if (position < 0 || position >= slots.length) return this;
+        if (slots[position] != null) slots[position].detach(this, position);
+        slots[position] = null;
+        occupied.clear(position);
+        if (slotView != null) slotView.sync(position, null);
+        return this;
+    }
+
+    /**
+     * Возвращает слоты меню по позициям.
+     * Карта отражает текущее состояние меню, а {@code put}, {@code remove} и {@code clear}
+     * выполняются через {@link #addSlot(int, Slot)}, {@link #removeSlot(int)} и {@link #clearMenu()}.
+     * Наборы ключей, значений и записей доступны только для чтения.
+     * @return карта позиция → слот.
+     */
+    public HashMap<Integer, Slot> getSlots() {
+        if (slotView == null) {
+            slotView = new SlotMap();
+            for (int position = occupied.nextSetBit(0); position >= 0; position = occupied.nextSetBit(position + 1)) {
+                slotView.sync(position, slots[position]);
+            }
+        }
+        return slotView;
+    }
+
+    /**
+     * Заменяет все слоты меню.
+     * @param slots карта позиция → слот.
+     */
+    public void setSlots(HashMap<Integer, Slot> slots) {
+        setSlots((Map<Integer, Slot>) slots);
+    }
+
+    /**
+     * Заменяет все слоты меню.
+     * @param slots карта позиция → слот.
+     */
+    public void setSlots(Map<Integer, Slot> slots) {
+        Map<Integer, Slot> copy = new HashMap<>(slots);
+        clearMenu();
+        copy.forEach((position, slot) -> {
+            if (slot != null) addSlot(position, slot);
+        });
+    }
+
+    /**
+     * Помечает меню для перерисовки. Сама перерисовка выполняется планировщиком {@link MenuService}
+     * не больше одного раза за тик, сколько бы раз ни был вызван этот метод.
+     * @param player игрок, для которого рендерятся плейсхолдеры.
+     */
     public void updateInventory(Player player) {
         if (menuService == null) return;
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                inventory.clear();
-                slots.forEach((position, slot) -> {
-                    if (slot != null) {
-                        inventory.setItem(position, slot.toItemStack(player));
-                    }
-                });
-                inventory.getViewers().forEach(viewer -> {
-                    if (!(viewer instanceof Player player)) return;
-                    player.updateInventory();
-                });
+        menuService.markDirty(this, player);
+    }
+
+    /**
+     * Перерисовывает слоты, сравнивая результат с прошлой отрисовкой.
+     * Предметы собираются в буфер меню, который переиспользуется между перерисовками.
+     * Если изменилось мало слотов, {@code setItem} вызывается только для них,
+     * иначе буфер записывается одним {@code setContents} и окно синхронизируется у каждого зрителя целиком.
+     * @param player игрок, для которого рендерятся плейсхолдеры.
+     * @return количество изменившихся слотов.
+     */
+    public int renderChanges(Player player) {
+        ensureBuffers();
+        renderPlayer = player;
+        changes.clear();
+        for (int position = 0; position < buffer.length; position++) {
+            if (!occupied.get(position) && rendered[position] == null && !takeItems) {
+                buffer[position] = null;
+                continue;
             }
-        }.runTask(menuService.getPlugin());
+            Slot slot = slots[position];
+            ItemStack item = slot != null ? slot.toItemStack(player, placeholderScope) : null;
+            ItemStack previous = takeItems ? inventory.getItem(position) : rendered[position];
+            buffer[position] = item;
+            if (!Objects.equals(item, previous)) changes.set(position);
+        }
+
+        int changed = changes.cardinality();
+        if (changed == 0) return 0;
+        if (changed >= BULK_THRESHOLD) {
+            inventory.setContents(buffer);
+            syncViewers();
+        } else {
+            for (int position = changes.nextSetBit(0); position >= 0; position = changes.nextSetBit(position + 1)) {
+                inventory.setItem(position, buffer[position]);
+            }
+        }
+        for (int position = changes.nextSetBit(0); position >= 0; position = changes.nextSetBit(position + 1)) {
+            rendered[position] = buffer[position];
+        }
+        return changed;
+    }
+
+    /**
+     * Перерисовывает один слот, если он изменился. Плейсхолдеры рендерятся для игрока
+     * последней полной перерисовки. Должен вызываться из основного потока.
+     * @param position позиция слота.
+     * @return true, если предмет в инвентаре изменился.
+     */
+    public boolean updateSlot(int position) {
+        if (rendered == null || position < 0 || position >= rendered.length) return false;
+        return renderPosition(position, renderPlayer);
+    }
+
+    private boolean renderPosition(int position, Player player) {
+        Slot slot = slots[position];
+        ItemStack item = slot != null ? slot.toItemStack(player, placeholderScope) : null;
+        ItemStack previous = takeItems ? inventory.getItem(position) : rendered[position];
+        if (Objects.equals(item, previous)) return false;
 
+        inventory.setItem(position, item);
+        rendered[position] = item;
+        return true;
     }
 
     public void open(Player player) {
+        beforeOpen(player);
         updateInventory(player);
         player.openInventory(inventory);
     }
 
+    /**
+     * Вызывается в основном потоке перед каждым открытием меню,
+     * как через {@link #open(Player)}, так и через {@link #openAsync(Player)}.
+     * Наследники подготавливают здесь содержимое, вместо переопределения open.
+     * @param player игрок.
+     */
+    protected void beforeOpen(Player player) {
+    }
+
+    /**
+     * Открывает меню, собрав предметы заранее вне основного потока.
+     * В фоне собираются слоты, для которых {@link Slot#canRenderAsync(Player, PlaceholderScope)} вернул true,
+     * остальные дорисовываются в основном потоке перед открытием.
+     * Должен вызываться из основного потока.
+     * @param player игрок.
+     * @return future, завершающийся после открытия инвентаря.
+     */
+    public CompletableFuture<Void> openAsync(Player player) {
+        beforeOpen(player);
+        Slot[] snapshot = slots.clone();
+        PlaceholderScope scope = placeholderScope;
+        BitSet async = new BitSet(snapshot.length);
+        for (int position = occupied.nextSetBit(0); position >= 0; position = occupied.nextSetBit(position + 1)) {
+            if (snapshot[position].canRenderAsync(player, scope)) async.set(position);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            ItemStack[] items = new ItemStack[snapshot.length];
+            for (int position = async.nextSetBit(0); position >= 0; position = async.nextSetBit(position + 1)) {
+                items[position] = snapshot[position].toItemStack(player, scope);
+            }
+            return items;
+        }, task -> Bukkit.getScheduler().runTaskAsynchronously(PPFS_Libs.getInstance(), task)).thenAcceptAsync(items -> {
+            for (int position = 0; position < items.length && position < slots.length; position++) {
+                if (slots[position] != snapshot[position] || placeholderScope != scope) items[position] = null;
+            }
+            commit(player, items);
+            if (player.isOnline()) player.openInventory(inventory);
+        }, Bukkit.getScheduler().getMainThreadExecutor(PPFS_Libs.getInstance()));
+    }
+
+    /**
+     * Записывает заранее собранные предметы в инвентарь одним {@code setContents}.
+     * Позиции слотов, для которых предмет не передан, дорисовываются здесь же.
+     * Должен вызываться из основного потока.
+     * @param player игрок, для которого рендерятся плейсхолдеры.
+     * @param items предметы по позициям, null - слот нужно отрисовать.
+     */
+    public void commit(Player player, ItemStack[] items) {
+        ensureBuffers();
+        renderPlayer = player;
+        for (int position = 0; position < buffer.length; position++) {
+            Slot slot = slots[position];
+            if (slot == null) {
+                buffer[position] = takeItems ? inventory.getItem(position) : null;
+                rendered[position] = null;
+                continue;
+            }
+            ItemStack item = position < items.length ? items[position] : null;
+            if (item == null) item = slot.toItemStack(player, placeholderScope);
+            buffer[position] = item;
+            rendered[position] = item;
+        }
+        inventory.setContents(buffer);
+        syncViewers();
+    }
+
+    private void ensureBuffers() {
+        int size = inventory.getSize();
+        if (rendered == null || rendered.length != size) rendered = new ItemStack[size];
+        if (buffer == null || buffer.length != size) buffer = new ItemStack[size];
+        if (changes == null) changes = new BitSet(size);
+    }
+
+    /**
+     * Отправляет зрителям всё окно одним пакетом после {@code setContents}.
+     */
+    private void syncViewers() {
+        for (HumanEntity viewer : inventory.getViewers()) {
+            if (viewer instanceof Player player) player.updateInventory();
+        }
+    }
+
 
     public OnClose getInventoryClose() {
         if (!hasInventoryClose()){
@@ -174,4 +419,127 @@ public class Menu implements Serializable, InventoryHolder {
     public boolean hasOutsideClick() {
         return outsideClick != null;
     }
+
+    /**
+     * Слоты меню в виде карты. Содержимое повторяет массив слотов,
+     * изменения через карту проходят через методы меню.
+     */
+    private final class SlotMap extends HashMap<Integer, Slot> {
+
+        private void sync(int position, Slot slot) {
+            if (slot == null) super.remove(position);
+            else super.put(position, slot);
+        }
+
+        private void reset() {
+            super.clear();
+        }
+
+        @Override
+        public Slot put(Integer position, Slot slot) {
+            Slot previous = getSlot(position);
+            if (slot == null) removeSlot(position);
+            else addSlot(position, slot);
+            return previous;
+        }
+
+        @Override
+        public void putAll(Map<? extends Integer, ? extends Slot> map) {
+            new HashMap<>(map).forEach(this::put);
+        }
+
+        @Override
+        public Slot putIfAbsent(Integer position, Slot slot) {
+            Slot previous = getSlot(position);
+            if (previous == null) put(position, slot);
+            return previous;
+        }
+
+        @Override
+        public Slot remove(Object key) {
+            if (!(key instanceof Integer position)) return null;
+            Slot previous = getSlot(position);
+            if (previous != null) removeSlot(position);
+            return previous;
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            if (value == null || get(key) != value) return false;
+            remove(key);
+            return true;
+        }
+
+        @Override
+        public Slot replace(Integer position, Slot slot) {
+            return containsKey(position) ? put(position, slot) : null;
+        }
+
+        @Override
+        public boolean replace(Integer position, Slot oldSlot, Slot newSlot) {
+            if (oldSlot == null || get(position) != oldSlot) return false;
+            put(position, newSlot);
+            return true;
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super Integer, ? super Slot, ? extends Slot> function) {
+            new HashMap<>(this).forEach((position, slot) -> put(position, function.apply(position, slot)));
+        }
+
+        @Override
+        public Slot computeIfAbsent(Integer position, Function<? super Integer, ? extends Slot> function) {
+            Slot slot = get(position);
+            if (slot != null) return slot;
+            slot = function.apply(position);
+            if (slot != null) put(position, slot);
+            return slot;
+        }
+
+        @Override
+        public Slot computeIfPresent(Integer position, BiFunction<? super Integer, ? super Slot, ? extends Slot> function) {
+            Slot slot = get(position);
+            return slot != null ? compute(position, function) : null;
+        }
+
+        @Override
+        public Slot compute(Integer position, BiFunction<? super Integer, ? super Slot, ? extends Slot> function) {
+            Slot slot = function.apply(position, get(position));
+            put(position, slot);
+            return slot;
+        }
+
+        @Override
+        public Slot merge(Integer position, Slot value, BiFunction<? super Slot, ? super Slot, ? extends Slot> function) {
+            Slot previous = get(position);
+            Slot slot = previous == null ? value : function.apply(previous, value);
+            put(position, slot);
+            return slot;
+        }
+
+        @Override
+        public void clear() {
+            clearMenu();
+        }
+
+        @Override
+        public Set<Integer> keySet() {
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Collection<Slot> values() {
+            return Collections.unmodifiableCollection(super.values());
+        }
+
+        @Override
+        public Set<Entry<Integer, Slot>> entrySet() {
+            return Collections.unmodifiableSet(super.entrySet());
+        }
+
+        @Override
+        public Object clone() {
+            return new HashMap<>(this);
+        }
+    }
 }
@@ -0,0 +1,52 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.menu;
+
+import java.util.List;
+
+/**
+ * Источник данных для {@link PaginatedMenu}.
+ * Методы вызываются вне основного потока, поэтому не должны обращаться к Bukkit API.
+ * @param <T> тип элемента.
+ */
+public interface MenuDataSource<T> {
+
+    /**
+     * Возвращает элементы с позиции offset.
+     * @param offset индекс первого элемента.
+     * @param limit максимальное количество элементов.
+     * @return элементы; меньше limit, если данные закончились.
+     */
+    List<T> get(int offset, int limit);
+
+    /**
+     * Возвращает ожидаемое количество элементов.
+     * @return количество элементов или -1, если оно неизвестно.
+     */
+    default int sizeHint() {
+        return -1;
+    }
+
+    /**
+     * Создаёт источник данных поверх списка.
+     * @param list список элементов.
+     * @return источник данных.
+     * @param <T> тип элемента.
+     */
+    static <T> MenuDataSource<T> of(List<T> list) {
+        return new MenuDataSource<>() {
+            @Override
+            public List<T> get(int offset, int limit) {
+                if (offset >= list.size()) return List.of();
+                return list.subList(offset, Math.min(list.size(), offset + limit));
+            }
+
+            @Override
+            public int sizeHint() {
+                return list.size();
+            }
+        };
+    }
+}
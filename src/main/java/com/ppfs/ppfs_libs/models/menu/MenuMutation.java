@@ -0,0 +1,66 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.menu;
+
+import com.ppfs.ppfs_libs.models.menu.slots.Slot;
+
+import java.util.function.Consumer;
+
+/**
+ * Изменение меню, подготовленное асинхронным обработчиком клика.
+ * Применяется в основном потоке.
+ */
+@FunctionalInterface
+public interface MenuMutation {
+
+    /**
+     * Применяет изменение к меню.
+     * @param menu меню.
+     */
+    void apply(Menu menu);
+
+    /**
+     * Изменение, которое ничего не делает.
+     * @return пустое изменение.
+     */
+    static MenuMutation none() {
+        return menu -> {
+        };
+    }
+
+    /**
+     * Изменяет слот на позиции и перерисовывает только его.
+     * Общий слот ({@link Slot#isShared()}) сначала заменяется копией, чтобы изменение не попало в другие меню.
+     * @param position позиция слота.
+     * @param change изменение слота.
+     * @return изменение меню.
+     */
+    static MenuMutation slot(int position, Consumer<Slot> change) {
+        return menu -> {
+            Slot slot = menu.getSlot(position);
+            if (slot == null) return;
+            if (slot.isShared()) {
+                slot = slot.copy();
+                menu.addSlot(position, slot);
+            }
+            change.accept(slot);
+            menu.updateSlot(position);
+        };
+    }
+
+    /**
+     * Заменяет слот на позиции и перерисовывает только его.
+     * @param position позиция слота.
+     * @param slot новый слот или null, чтобы удалить слот.
+     * @return изменение меню.
+     */
+    static MenuMutation replace(int position, Slot slot) {
+        return menu -> {
+            if (slot == null) menu.removeSlot(position);
+            else menu.addSlot(position, slot);
+            menu.updateSlot(position);
+        };
+    }
+}
@@ -0,0 +1,199 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.menu;
+
+import com.ppfs.ppfs_libs.models.configs.ConfigJSON;
+import com.ppfs.ppfs_libs.models.menu.slots.Slot;
+import com.ppfs.ppfs_libs.models.menu.slots.actions.OnClick;
+import com.ppfs.ppfs_libs.models.message.Message;
+import com.ppfs.ppfs_libs.models.message.PlaceholderScope;
+import com.ppfs.ppfs_libs.models.message.Placeholders;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.*;
+
+/**
+ * Шаблон меню, загружаемый из JSON через {@link ConfigJSON}.
+ * При первом использовании шаблон компилируется в неизменяемую раскладку:
+ * сообщения слотов компилируются заранее, а слоты без зависимости от игрока
+ * становятся общими прототипами для всех меню, созданных по шаблону.
+ * {@link #instantiate(Player)} создаёт только инвентарь и копии слотов, зависящих от игрока.
+ * Все меню шаблона используют одну область плейсхолдеров шаблона, поэтому отрисовка общих слотов
+ * кэшируется один раз на все меню. Общие слоты изменять нельзя, см. {@link Slot#isShared()}.
+ */
+@Getter
+public class MenuTemplate extends ConfigJSON {
+    private String id = "menu";
+    private String title = "";
+    private int size = 27;
+    private boolean canBeClosed = true;
+    private boolean takeItems = false;
+    private List<Slot> slots = new ArrayList<>();
+
+    @Setter
+    private transient Plugin plugin;
+    private final transient Placeholders placeholders = new Placeholders();
+    @Getter(AccessLevel.NONE)
+    private transient volatile PlaceholderScope scope;
+    @Getter(AccessLevel.NONE)
+    private final transient Map<Integer, OnClick> listeners = new HashMap<>();
+    @Getter(AccessLevel.NONE)
+    private transient volatile Layout layout;
+
+    public MenuTemplate() {
+    }
+
+    /**
+     * Загружает шаблон из файла в папке плагина.
+     * @param plugin плагин.
+     * @param fileName имя файла.
+     * @return шаблон меню.
+     */
+    public static MenuTemplate load(Plugin plugin, String fileName) {
+        MenuTemplate template = load(plugin, fileName, MenuTemplate.class);
+        template.setPlugin(plugin);
+        return template;
+    }
+
+    /**
+     * Устанавливает слушатель кликов для слота шаблона.
+     * Слушатель общий для всех меню, созданных по шаблону.
+     * @param position позиция слота.
+     * @param listener слушатель кликов.
+     * @return текущий экземпляр шаблона.
+     */
+    public MenuTemplate setListener(int position, OnClick listener) {
+        listeners.put(position, listener);
+        layout = null;
+        return this;
+    }
+
+    /**
+     * Создаёт меню по шаблону.
+     * Общие слоты переиспользуются, копируются только слоты, зависящие от игрока.
+     * Плейсхолдер {@code <player>} задаётся в копиях слотов, а не в области меню,
+     * чтобы область общих слотов была одинаковой у всех меню шаблона.
+     * @param player игрок, для которого создаётся меню.
+     * @return новое меню.
+     */
+    public Menu instantiate(Player player) {
+        Layout compiled = getLayout();
+        Menu menu = new Menu(id, title, size, plugin);
+        menu.setPlaceholderScope(getScope().child(new Placeholders()));
+        menu.setCanBeClosed(canBeClosed);
+        menu.setTakeItems(takeItems);
+
+        for (int i = 0; i < compiled.positions.length; i++) {
+            Slot slot = compiled.slots[i];
+            if (compiled.perPlayer.get(i)) {
+                slot = slot.copy();
+                if (player != null) slot.getPlaceholders().add("player", player.getName());
+            }
+            menu.addSlot(compiled.positions[i], slot);
+        }
+        return menu;
+    }
+
+    /**
+     * Компилирует шаблон заранее, чтобы первое открытие не тратило на это время.
+     * @return текущий экземпляр шаблона.
+     */
+    public MenuTemplate compile() {
+        getLayout();
+        return this;
+    }
+
+    @Override
+    protected void copyFrom(ConfigJSON other) {
+        Plugin current = plugin;
+        super.copyFrom(other);
+        plugin = current;
+        scope = null;
+        layout = null;
+    }
+
+    private PlaceholderScope getScope() {
+        PlaceholderScope current = scope;
+        if (current == null) {
+            current = PlaceholderScope.plugin(plugin).child(placeholders);
+            scope = current;
+        }
+        return current;
+    }
+
+    private Layout getLayout() {
+        Layout compiled = layout;
+        if (compiled == null) {
+            compiled = new Layout(slots, listeners, size);
+            layout = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * Скомпилированная раскладка шаблона.
+     * Слоты раскладки - копии слотов конфигурации, поэтому исходные слоты остаются изменяемыми.
+     */
+    private static final class Layout {
+        private final int[] positions;
+        private final Slot[] slots;
+        private final BitSet perPlayer = new BitSet();
+
+        private Layout(List<Slot> source, Map<Integer, OnClick> listeners, int size) {
+            Map<Integer, Slot> byPosition = new TreeMap<>();
+            int next = 0;
+            for (Slot slot : source) {
+                int position = slot.getPosition();
+                if (position < 0) {
+                    while (byPosition.containsKey(next)) next++;
+                    position = next;
+                }
+                if (position >= size) {
+                    throw new IllegalArgumentException("Позиция слота вне инвентаря: " + position);
+                }
+                byPosition.put(position, slot);
+            }
+
+            positions = new int[byPosition.size()];
+            slots = new Slot[byPosition.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Slot> entry : byPosition.entrySet()) {
+                Slot slot = entry.getValue().copy();
+                OnClick listener = listeners.get(entry.getKey());
+                if (listener != null) slot.setListener(listener);
+                slot.setPosition(entry.getKey());
+
+                compile(slot.getDisplayName());
+                compile(slot.getLore());
+                if (isPlayerDependent(slot)) {
+                    perPlayer.set(i);
+                } else {
+                    slot.markShared();
+                }
+
+                positions[i] = entry.getKey();
+                slots[i++] = slot;
+            }
+        }
+
+        private static void compile(Message message) {
+            if (message != null) message.compile();
+        }
+
+        private static boolean isPlayerDependent(Slot slot) {
+            return slot.getPlaceholders().hasProviders()
+                    || isPlayerDependent(slot.getDisplayName())
+                    || isPlayerDependent(slot.getLore());
+        }
+
+        private static boolean isPlayerDependent(Message message) {
+            return message != null && (message.isPlayerDependent() || message.usesKey("player"));
+        }
+    }
+}
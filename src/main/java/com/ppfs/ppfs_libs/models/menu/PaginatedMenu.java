@@ -0,0 +1,265 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.menu;
+
+import com.ppfs.ppfs_libs.models.menu.slots.Slot;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Меню со страницами поверх {@link MenuDataSource}.
+ * Слоты создаются только для видимой страницы, соседние страницы загружаются заранее в фоне.
+ * Переключение страниц использует тот же инвентарь и перерисовывает только изменившиеся слоты.
+ * @param <T> тип элемента.
+ */
+public class PaginatedMenu<T> extends Menu {
+    private static final Logger log = LoggerFactory.getLogger(PaginatedMenu.class);
+
+    private final transient Plugin plugin;
+    private final transient MenuDataSource<T> source;
+    private final transient Function<T, Slot> slotFactory;
+    private final transient Map<Integer, CompletableFuture<Page<T>>> pages = new ConcurrentHashMap<>();
+
+    @Getter
+    private int[] contentPositions;
+    @Getter
+    private int page;
+    private transient int shownPage = -1;
+    private transient boolean hasNext;
+    private transient int pageCount = -1;
+
+    private transient int previousPosition = -1;
+    private transient Slot previousButton;
+    private transient int nextPosition = -1;
+    private transient Slot nextButton;
+
+    /**
+     * @param id идентификатор меню.
+     * @param title заголовок меню.
+     * @param rows размер инвентаря.
+     * @param plugin плагин, в котором выполняются фоновые загрузки.
+     * @param source источник данных.
+     * @param slotFactory создание слота для элемента.
+     */
+    public PaginatedMenu(String id, String title, int rows, Plugin plugin, MenuDataSource<T> source, Function<T, Slot> slotFactory) {
+        super(id, title, rows, plugin);
+        this.plugin = plugin;
+        this.source = source;
+        this.slotFactory = slotFactory;
+
+        int size = getInventory().getSize();
+        int contentSize = size > 9 ? size - 9 : size;
+        this.contentPositions = new int[contentSize];
+        for (int i = 0; i < contentSize; i++) contentPositions[i] = i;
+    }
+
+    /**
+     * Устанавливает позиции, в которых показываются элементы страницы.
+     * По умолчанию это все позиции, кроме нижнего ряда.
+     * @param positions позиции слотов.
+     * @return обновленный экземпляр PaginatedMenu.
+     */
+    public PaginatedMenu<T> setContentPositions(int... positions) {
+        if (positions.length == 0) throw new IllegalArgumentException("Список позиций пуст");
+        clearContent();
+        this.contentPositions = positions.clone();
+        this.shownPage = -1;
+        pages.clear();
+        return this;
+    }
+
+    /**
+     * Устанавливает кнопку перехода на предыдущую страницу. Слушатель кликов кнопки заменяется.
+     * @param position позиция кнопки.
+     * @param button слот кнопки.
+     * @return обновленный экземпляр PaginatedMenu.
+     */
+    public PaginatedMenu<T> setPreviousButton(int position, Slot button) {
+        this.previousPosition = position;
+        this.previousButton = button.setListener(event -> {
+            if (event.getWhoClicked() instanceof Player player) previous(player);
+            return true;
+        });
+        return this;
+    }
+
+    /**
+     * Устанавливает кнопку перехода на следующую страницу. Слушатель кликов кнопки заменяется.
+     * @param position позиция кнопки.
+     * @param button слот кнопки.
+     * @return обновленный экземпляр PaginatedMenu.
+     */
+    public PaginatedMenu<T> setNextButton(int position, Slot button) {
+        this.nextPosition = position;
+        this.nextButton = button.setListener(event -> {
+            if (event.getWhoClicked() instanceof Player player) next(player);
+            return true;
+        });
+        return this;
+    }
+
+    public int getPageSize() {
+        return contentPositions.length;
+    }
+
+    /**
+     * Возвращает количество страниц по оценке источника данных, полученной вместе с показанной страницей.
+     * @return количество страниц или -1, если размер данных неизвестен.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Проверяет, загружается ли сейчас страница, которая ещё не показана.
+     * @return true, если переход на страницу ещё не завершён.
+     */
+    public boolean isLoading() {
+        return page != shownPage;
+    }
+
+    public boolean hasPrevious() {
+        return shownPage > 0;
+    }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * Переходит на следующую страницу относительно показанной.
+     * Пока предыдущий переход не завершён, вызов игнорируется.
+     * @param player игрок, для которого рендерятся плейсхолдеры.
+     */
+    public void next(Player player) {
+        if (!isLoading() && hasNext) setPage(shownPage + 1, player);
+    }
+
+    /**
+     * Переходит на предыдущую страницу относительно показанной.
+     * Пока предыдущий переход не завершён, вызов игнорируется.
+     * @param player игрок, для которого рендерятся плейсхолдеры.
+     */
+    public void previous(Player player) {
+        if (!isLoading() && shownPage > 0) setPage(shownPage - 1, player);
+    }
+
+    /**
+     * Переключает меню на страницу. Если страница ещё не загружена,
+     * она загружается в фоне и показывается после загрузки.
+     * Если загрузка не удалась, номер страницы возвращается к показанной.
+     * @param page номер страницы, начиная с 0.
+     * @param player игрок, для которого рендерятся плейсхолдеры.
+     */
+    public void setPage(int page, Player player) {
+        if (page < 0) return;
+        this.page = page;
+        load(page).whenCompleteAsync((loaded, error) -> {
+            if (this.page != page) return;
+            if (error != null) {
+                this.page = Math.max(shownPage, 0);
+                return;
+            }
+            showPage(page, loaded, player);
+        }, Bukkit.getScheduler().getMainThreadExecutor(plugin));
+    }
+
+    /**
+     * Сбрасывает загруженные страницы и заново загружает текущую.
+     * @param player игрок, для которого рендерятся плейсхолдеры.
+     */
+    public void refresh(Player player) {
+        pages.clear();
+        shownPage = -1;
+        setPage(page, player);
+    }
+
+    @Override
+    protected void beforeOpen(Player player) {
+        if (shownPage != page) setPage(page, player);
+    }
+
+    /**
+     * Загружает страницу в фоне. Оценка размера данных запрашивается там же,
+     * так как источник может обращаться к базе данных.
+     */
+    private CompletableFuture<Page<T>> load(int page) {
+        int pageSize = getPageSize();
+        return pages.computeIfAbsent(page, key -> {
+            CompletableFuture<Page<T>> future = CompletableFuture.supplyAsync(
+                    () -> new Page<>(source.get(key * pageSize, pageSize), pageCount(source.sizeHint(), pageSize)),
+                    task -> Bukkit.getScheduler().runTaskAsynchronously(plugin, task));
+            future.exceptionally(e -> {
+                log.error("Ошибка при загрузке страницы {} меню {}", key, getId(), e);
+                pages.remove(key, future);
+                return null;
+            });
+            return future;
+        });
+    }
+
+    private static int pageCount(int size, int pageSize) {
+        if (size < 0) return -1;
+        return Math.max(1, (size + pageSize - 1) / pageSize);
+    }
+
+    private void showPage(int page, Page<T> loaded, Player player) {
+        List<T> items = loaded != null && loaded.items() != null ? loaded.items() : List.of();
+        clearContent();
+        for (int i = 0; i < items.size() && i < contentPositions.length; i++) {
+            Slot slot = slotFactory.apply(items.get(i));
+            if (slot != null) addSlot(contentPositions[i], slot);
+        }
+
+        pageCount = loaded != null ? loaded.pageCount() : -1;
+        hasNext = pageCount >= 0 ? page + 1 < pageCount : items.size() >= contentPositions.length;
+        shownPage = page;
+
+        placeButton(previousPosition, previousButton, page > 0);
+        placeButton(nextPosition, nextButton, hasNext);
+        getPlaceholders()
+                .add("page", String.valueOf(page + 1))
+                .add("pages", pageCount >= 0 ? String.valueOf(pageCount) : "?");
+
+        pages.keySet().removeIf(key -> Math.abs(key - page) > 1);
+        if (hasNext) load(page + 1);
+        if (page > 0) load(page - 1);
+
+        updateInventory(player);
+    }
+
+    private void placeButton(int position, Slot button, boolean visible) {
+        if (position < 0 || button == null) return;
+        if (visible) {
+            addSlot(position, button);
+        } else {
+            removeSlot(position);
+        }
+    }
+
+    private void clearContent() {
+        for (int position : contentPositions) {
+            removeSlot(position);
+        }
+    }
+
+    /**
+     * Загруженная страница.
+     * @param items элементы страницы.
+     * @param pageCount количество страниц на момент загрузки или -1.
+     */
+    private record Page<T>(List<T> items, int pageCount) {
+    }
+}
@@ -0,0 +1,156 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.menu.slots;
+
+import com.ppfs.ppfs_libs.models.menu.Menu;
+import com.ppfs.ppfs_libs.models.message.PlaceholderScope;
+import com.ppfs.ppfs_libs.service.AnimationWheel;
+import lombok.Getter;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.*;
+
+/**
+ * Слот, показывающий кадры по кругу с заданным интервалом.
+ * Кадры переключаются общим {@link AnimationWheel}, после смены кадра перерисовывается
+ * только этот слот в открытых меню. Когда ни одно меню со слотом не открыто,
+ * анимация снимается с таймера и возобновляется при следующей отрисовке.
+ */
+public class AnimatedSlot extends Slot implements AnimationWheel.Animation {
+    private final List<Slot> frames = new ArrayList<>();
+    @Getter
+    private int interval;
+    @Getter
+    private transient int frame;
+
+    private final transient Map<Menu, Integer> owners = new WeakHashMap<>();
+    private transient boolean scheduled;
+    private transient PlaceholderScope frameParent;
+    private transient PlaceholderScope frameScope;
+
+    /**
+     * @param interval интервал между кадрами в тиках.
+     * @param frames кадры анимации.
+     */
+    public AnimatedSlot(int interval, Slot... frames) {
+        setInterval(interval);
+        this.frames.addAll(Arrays.asList(frames));
+    }
+
+    /**
+     * Устанавливает интервал между кадрами.
+     * @param interval интервал в тиках.
+     * @return обновленный экземпляр AnimatedSlot.
+     */
+    public AnimatedSlot setInterval(int interval) {
+        checkMutable();
+        if (interval < 1) throw new IllegalArgumentException("Интервал анимации должен быть положительным: " + interval);
+        this.interval = interval;
+        return this;
+    }
+
+    /**
+     * Добавляет кадры в конец анимации.
+     * @param frames кадры.
+     * @return обновленный экземпляр AnimatedSlot.
+     */
+    public AnimatedSlot addFrame(Slot... frames) {
+        checkMutable();
+        this.frames.addAll(Arrays.asList(frames));
+        markDirty();
+        return this;
+    }
+
+    public List<Slot> getFrames() {
+        return Collections.unmodifiableList(frames);
+    }
+
+    @Override
+    public ItemStack toItemStack(Player player, PlaceholderScope scope) {
+        if (frames.isEmpty()) return super.toItemStack(player, scope);
+        if (!scheduled && !owners.isEmpty()) {
+            scheduled = true;
+            AnimationWheel.getInstance().schedule(this, interval);
+        }
+        PlaceholderScope parent = scope != null ? scope : PlaceholderScope.global();
+        return frames.get(frame % frames.size()).toItemStack(player, getFrameScope(parent));
+    }
+
+    /**
+     * Возвращает область плейсхолдеров для кадров. Область пересоздаётся только при смене родителя,
+     * иначе кэш отрисовки кадров сбрасывался бы на каждом шаге анимации.
+     */
+    private PlaceholderScope getFrameScope(PlaceholderScope parent) {
+        PlaceholderScope current = frameScope;
+        if (current == null || frameParent != parent || current.getPlaceholders() != getPlaceholders()) {
+            current = parent.child(getPlaceholders());
+            frameParent = parent;
+            frameScope = current;
+        }
+        return current;
+    }
+
+    @Override
+    public AnimatedSlot copy() {
+        AnimatedSlot copy = new AnimatedSlot(interval);
+        copyTo(copy);
+        for (Slot frame : frames) {
+            copy.frames.add(frame.copy());
+        }
+        return copy;
+    }
+
+    @Override
+    public boolean canRenderAsync(Player player, PlaceholderScope scope) {
+        return false;
+    }
+
+    @Override
+    @Deprecated
+    public ItemStack toItemStack() {
+        if (frames.isEmpty()) return super.toItemStack();
+        return frames.get(frame % frames.size()).toItemStack();
+    }
+
+    @Override
+    public void attach(Menu menu, int position) {
+        owners.put(menu, position);
+    }
+
+    @Override
+    public void detach(Menu menu, int position) {
+        owners.remove(menu, position);
+    }
+
+    /**
+     * Переключает кадр. Если анимация снимается с колеса, в том числе из-за исключения,
+     * флаг планирования сбрасывается, чтобы следующая отрисовка снова запустила анимацию.
+     */
+    @Override
+    public int frame() {
+        int next = 0;
+        try {
+            next = nextFrame();
+            return next;
+        } finally {
+            if (next == 0) scheduled = false;
+        }
+    }
+
+    private int nextFrame() {
+        List<Map.Entry<Menu, Integer>> visible = new ArrayList<>();
+        for (Map.Entry<Menu, Integer> owner : owners.entrySet()) {
+            if (!owner.getKey().getInventory().getViewers().isEmpty()) visible.add(owner);
+        }
+        if (visible.isEmpty() || frames.isEmpty()) return 0;
+
+        frame = (frame + 1) % frames.size();
+        for (Map.Entry<Menu, Integer> owner : visible) {
+            owner.getKey().updateSlot(owner.getValue());
+        }
+        return interval;
+    }
+}
@@ -4,9 +4,17 @@
 
 package com.ppfs.ppfs_libs.models.menu.slots;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.ppfs.ppfs_libs.PPFS_Libs;
+import com.ppfs.ppfs_libs.models.menu.Menu;
+import com.ppfs.ppfs_libs.models.message.PlaceholderScope;
+import com.ppfs.ppfs_libs.service.SkullProfileResolver;
 import de.tr7zw.changeme.nbtapi.NBT;
 import de.tr7zw.changeme.nbtapi.iface.ReadWriteNBT;
+import lombok.AccessLevel;
 import lombok.Getter;
+import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
@@ -14,12 +22,27 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.inventory.meta.SkullMeta;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.WeakHashMap;
 
 @Getter
 public class HeadSlot extends Slot {
+    private static final Cache<String, ItemStack> prototypes = CacheBuilder.newBuilder()
+            .maximumSize(2048)
+            .build();
+
     private String textureValue = null;
     private OfflinePlayer owner = null;
+    @Getter(AccessLevel.NONE)
+    private final transient Map<Menu, Integer> menus = new WeakHashMap<>();
+    /**
+     * Идёт ли загрузка текстуры владельца. Пишется в основном потоке, но может читаться при фоновой отрисовке.
+     */
+    @Getter(AccessLevel.NONE)
+    private transient volatile boolean resolving;
 
     @Override
     @Deprecated
@@ -28,40 +51,110 @@ public class HeadSlot extends Slot {
     }
 
     @Override
-    public ItemStack toItemStack(Player player) {
-        return setupHeadValue(super.toItemStack(player));
+    protected ItemStack buildItemStack(Player player, PlaceholderScope scope) {
+        String texture = getTexture();
+        if (texture == null || getMeta() != null) return setupHeadValue(super.buildItemStack(player, scope));
+
+        ItemStack item = getPrototype(texture).clone();
+        item.setAmount(getAmount());
+        item.setItemMeta(getMeta(item, player, scope));
+        return item;
     }
 
+    /**
+     * Возвращает готовую голову с текстурой. NBT собирается один раз на текстуру,
+     * UUID профиля вычисляется из текстуры, поэтому клиент не скачивает скин заново при каждом обновлении.
+     * @param texture значение текстуры.
+     * @return прототип головы, который нельзя изменять.
+     */
+    private static ItemStack getPrototype(String texture) {
+        ItemStack prototype = prototypes.getIfPresent(texture);
+        if (prototype == null) {
+            prototype = applyTexture(new ItemStack(Material.PLAYER_HEAD), texture);
+            prototypes.put(texture, prototype);
+        }
+        return prototype;
+    }
 
+    /**
+     * Возвращает текстуру головы. Для офлайн владельца текстура берётся из {@link SkullProfileResolver};
+     * если её ещё нет, запускается фоновая загрузка, а до её завершения рисуется обычная голова.
+     * @return значение текстуры или null.
+     */
+    private String getTexture() {
+        if (getMaterial() != Material.PLAYER_HEAD) return null;
+        if (owner == null) return textureValue;
+        if (owner.isOnline()) return null;
+
+        String texture = SkullProfileResolver.getInstance().getCached(owner.getUniqueId());
+        if (texture == null) resolveOwner(owner);
+        return texture;
+    }
 
-    private ItemStack setupHeadValue(ItemStack item){
-        if (textureValue != null && item.getType() == Material.PLAYER_HEAD && owner == null) {
-            NBT.modify(item, nbt -> {
-                ReadWriteNBT skullOwnerCompound = nbt.getOrCreateCompound("SkullOwner");
+    private void resolveOwner(OfflinePlayer target) {
+        if (resolving) return;
+        resolving = true;
+        SkullProfileResolver.getInstance().resolve(target.getUniqueId()).whenCompleteAsync((texture, error) -> {
+            resolving = false;
+            if (error != null || texture == null || owner != target) return;
+            invalidateRender();
+            new HashMap<>(menus).forEach(Menu::updateSlot);
+        }, Bukkit.getScheduler().getMainThreadExecutor(PPFS_Libs.getInstance()));
+    }
+
+    @Override
+    public HeadSlot copy() {
+        HeadSlot copy = new HeadSlot();
+        copyTo(copy);
+        copy.textureValue = textureValue;
+        copy.owner = owner;
+        return copy;
+    }
+
+    @Override
+    public boolean canRenderAsync(Player player, PlaceholderScope scope) {
+        return owner == null && super.canRenderAsync(player, scope);
+    }
 
-                skullOwnerCompound.setUUID("Id", UUID.randomUUID());
+    @Override
+    public void attach(Menu menu, int position) {
+        menus.put(menu, position);
+    }
 
-                skullOwnerCompound.getOrCreateCompound("Properties")
-                        .getCompoundList("textures")
-                        .addCompound()
-                        .setString("Value", textureValue);
-            });
+    @Override
+    public void detach(Menu menu, int position) {
+        menus.remove(menu, position);
+    }
+
+    private ItemStack setupHeadValue(ItemStack item){
+        String texture = getTexture();
+        if (texture != null && item.getType() == Material.PLAYER_HEAD) {
+            applyTexture(item, texture);
         }
         return item;
     }
 
-    @Override
-    public ItemMeta getMeta(ItemStack item) {
-        return setupHeadOwner(super.getMeta(item));
+    private static ItemStack applyTexture(ItemStack item, String texture) {
+        NBT.modify(item, nbt -> {
+            ReadWriteNBT skullOwnerCompound = nbt.getOrCreateCompound("SkullOwner");
+
+            skullOwnerCompound.setUUID("Id", UUID.nameUUIDFromBytes(texture.getBytes(StandardCharsets.UTF_8)));
+
+            skullOwnerCompound.getOrCreateCompound("Properties")
+                    .getCompoundList("textures")
+                    .addCompound()
+                    .setString("Value", texture);
+        });
+        return item;
     }
 
     @Override
-    public ItemMeta getMeta(ItemStack item, Player player) {
-        return setupHeadOwner(super.getMeta(item, player));
+    public ItemMeta getMeta(ItemStack item, Player player, PlaceholderScope scope) {
+        return setupHeadOwner(super.getMeta(item, player, scope));
     }
 
     private ItemMeta setupHeadOwner(ItemMeta meta){
-        if (meta instanceof SkullMeta skullMeta && owner != null)
+        if (meta instanceof SkullMeta skullMeta && owner != null && owner.isOnline())
             skullMeta.setOwningPlayer(owner);
         return meta;
     }
@@ -71,15 +164,19 @@ public class HeadSlot extends Slot {
     @param value значение скина
      */
     public Slot setHeadValue(String value){
+        checkMutable();
         this.textureValue = value;
-        return this;
+        return markDirty();
     }
 
     /**
-     Устанавливает скин на голову из Offline player
+     Устанавливает скин на голову из Offline player.
+     Профиль офлайн игрока загружается в фоне, до загрузки показывается обычная голова.
      @param player Офлайн игрок
      */
     public void setHeadOwner (OfflinePlayer player){
+            checkMutable();
             owner = player;
+            markDirty();
         }
     }
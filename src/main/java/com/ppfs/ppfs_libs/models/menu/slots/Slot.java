@@ -5,9 +5,14 @@
 package com.ppfs.ppfs_libs.models.menu.slots;
 
 import com.google.common.collect.Sets;
+import com.ppfs.ppfs_libs.models.menu.ClickLimit;
+import com.ppfs.ppfs_libs.models.menu.Menu;
 import com.ppfs.ppfs_libs.models.menu.slots.actions.OnClick;
+import com.ppfs.ppfs_libs.models.menu.slots.actions.OnClickAsync;
 import com.ppfs.ppfs_libs.models.message.Message;
+import com.ppfs.ppfs_libs.models.message.PlaceholderScope;
 import com.ppfs.ppfs_libs.models.message.Placeholders;
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
@@ -22,10 +27,12 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.jetbrains.annotations.NotNull;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Getter
@@ -33,10 +40,20 @@ import java.util.concurrent.ConcurrentHashMap;
 @ToString
 @EqualsAndHashCode
 public class Slot implements ISlot{
+    private static final long DEFAULT_RENDER_TTL = Duration.ofMillis(50).toNanos();
+    /**
+     * Классы, переопределяющие устаревшие методы рендера. Такие слоты рендерятся через переопределение и без кэша,
+     * а базовые реализации устаревших методов, вызванные из переопределения через super, рендерят слот сами.
+     */
+    private static final ClassValue<Boolean> LEGACY_ITEM = overrides("toItemStack", Player.class);
+    private static final ClassValue<Boolean> LEGACY_PLAYER_META = overrides("getMeta", ItemStack.class, Player.class);
+    private static final ClassValue<Boolean> LEGACY_META = overrides("getMeta", ItemStack.class);
+
     private Message displayName;
     private Message lore;
     private Material material = Material.STONE;
     private transient OnClick listener;
+    private transient OnClickAsync asyncListener;
     private transient ItemMeta meta;
     private int position = -1;
     private int amount = 1;
@@ -44,6 +61,24 @@ public class Slot implements ISlot{
     private Map<Enchantment, Integer> enchantments = new ConcurrentHashMap<>();
     private Set<ItemFlag> itemFlags = new HashSet<>();
     private Placeholders placeholders = new Placeholders();
+    private transient ClickLimit clickLimit;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient int modCount;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient long renderTtlNanos = DEFAULT_RENDER_TTL;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient SlotRenderCache renderCache;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient boolean shared;
 
     public Slot() {
     }
@@ -64,7 +99,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setMeta(ItemMeta meta) {
+        checkMutable();
         this.meta = meta;
+        markDirty();
         return this;
     }
 
@@ -74,7 +111,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setDisplayName(String displayName) {
+        checkMutable();
         this.displayName = new Message(displayName);
+        markDirty();
         return this;
     }
 
@@ -84,7 +123,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setDisplayName(Message displayName) {
+        checkMutable();
         this.displayName = displayName;
+        markDirty();
         return this;
     }
 
@@ -94,11 +135,13 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot addDisplayName(Message additionalDisplayName) {
+        checkMutable();
         if (this.displayName == null) {
             this.displayName = additionalDisplayName;
         } else {
             this.displayName.add(additionalDisplayName);
         }
+        markDirty();
         return this;
     }
 
@@ -116,11 +159,13 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setLore(String... lore) {
+        checkMutable();
         if (this.lore == null) {
             this.lore = new Message(lore);
         } else {
             this.lore.add(lore);
         }
+        markDirty();
         return this;
     }
 
@@ -130,7 +175,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setLore(Message lore) {
+        checkMutable();
         this.lore = lore;
+        markDirty();
         return this;
     }
 
@@ -140,11 +187,13 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot addLore(Message lore) {
+        checkMutable();
         if (this.lore == null) {
             this.lore = lore;
         } else {
             this.lore.add(lore);
         }
+        markDirty();
         return this;
     }
 
@@ -154,11 +203,13 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot addLore(String... lore) {
+        checkMutable();
         if (this.lore == null) {
             this.lore = new Message(lore);
         } else {
             this.lore.add(lore);
         }
+        markDirty();
         return this;
     }
 
@@ -176,7 +227,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setMaterial(Material material) {
+        checkMutable();
         this.material = material;
+        markDirty();
         return this;
     }
 
@@ -194,16 +247,42 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setListener(OnClick listener) {
+        checkMutable();
         this.listener = listener;
         return this;
     }
 
+    /**
+     * Устанавливает асинхронный обработчик кликов для слота.
+     * Обработчик выполняется вне основного потока, а возвращённое изменение меню
+     * применяется в основном потоке. Событие клика всегда отменяется.
+     * @param asyncListener объект OnClickAsync.
+     * @return обновленный экземпляр Slot.
+     */
+    public Slot setAsyncListener(OnClickAsync asyncListener) {
+        checkMutable();
+        this.asyncListener = asyncListener;
+        return this;
+    }
+
+    /**
+     * Устанавливает ограничение частоты кликов по слоту.
+     * @param clickLimit лимит или null, чтобы снять ограничение.
+     * @return обновленный экземпляр Slot.
+     */
+    public Slot setClickLimit(ClickLimit clickLimit) {
+        checkMutable();
+        this.clickLimit = clickLimit;
+        return this;
+    }
+
     /**
      * Устанавливает позицию слота в меню.
      * @param position позиция.
      * @return обновленный экземпляр Slot.
      */
     public Slot setPosition(int position) {
+        if (position != this.position) checkMutable();
         this.position = position;
         return this;
     }
@@ -214,7 +293,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot addAmount(int amount) {
+        checkMutable();
         this.amount += amount;
+        markDirty();
         return this;
     }
 
@@ -224,7 +305,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setAmount(int amount) {
+        checkMutable();
         this.amount = amount;
+        markDirty();
         return this;
     }
 
@@ -234,7 +317,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setEnchantments(Map<Enchantment, Integer> enchantments) {
+        checkMutable();
         this.enchantments = enchantments;
+        markDirty();
         return this;
     }
 
@@ -245,7 +330,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot addEnchantment(Enchantment enchantment, int level) {
+        checkMutable();
         this.enchantments.put(enchantment, level);
+        markDirty();
         return this;
     }
 
@@ -254,7 +341,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot clearEnchantments() {
+        checkMutable();
         this.enchantments = new ConcurrentHashMap<>();
+        markDirty();
         return this;
     }
 
@@ -264,7 +353,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot removeEnchantment(Enchantment enchantment) {
+        checkMutable();
         this.enchantments.remove(enchantment);
+        markDirty();
         return this;
     }
 
@@ -274,7 +365,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setCustomModelData(int customModelData) {
+        checkMutable();
         this.customModelData = customModelData;
+        markDirty();
         return this;
     }
 
@@ -283,7 +376,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot resetCustomModelData() {
+        checkMutable();
         this.customModelData = 0;
+        markDirty();
         return this;
     }
 
@@ -293,9 +388,11 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot addItemFlag(ItemFlag... itemFlags) {
+        checkMutable();
         if (itemFlags != null) {
             this.itemFlags.addAll(Arrays.asList(itemFlags));
         }
+        markDirty();
         return this;
     }
 
@@ -305,7 +402,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setItemFlags(ItemFlag... itemFlags) {
+        checkMutable();
         this.itemFlags = itemFlags != null ? Sets.newHashSet(itemFlags) : new HashSet<>();
+        markDirty();
         return this;
     }
 
@@ -315,7 +414,9 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot setItemFlags(@NotNull Set<ItemFlag> itemFlags) {
+        checkMutable();
         this.itemFlags = itemFlags;
+        markDirty();
         return this;
     }
 
@@ -325,10 +426,120 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot addItemFlags(Set<ItemFlag> itemFlags) {
+        checkMutable();
         this.itemFlags.addAll(itemFlags);
+        markDirty();
+        return this;
+    }
+
+    /**
+     * Устанавливает плейсхолдеры слота.
+     * @param placeholders плейсхолдеры.
+     * @return обновленный экземпляр Slot.
+     */
+    public Slot setPlaceholders(Placeholders placeholders) {
+        checkMutable();
+        this.placeholders = placeholders;
+        markDirty();
+        return this;
+    }
+
+    /**
+     * Устанавливает, сколько живёт отрисованный предмет слота, зависящего от игрока
+     * (PlaceholderAPI или ленивые плейсхолдеры). Ноль отключает кэширование таких слотов.
+     * @param ttl время жизни.
+     * @return обновленный экземпляр Slot.
+     */
+    public Slot setRenderTtl(Duration ttl) {
+        checkMutable();
+        this.renderTtlNanos = ttl.toNanos();
+        markDirty();
+        return this;
+    }
+
+    /**
+     * Помечает слот изменённым, чтобы при следующей отрисовке предмет был собран заново.
+     * Нужно вызывать после изменения коллекций, полученных через геттеры, например {@link #getEnchantments()}.
+     * @return обновленный экземпляр Slot.
+     */
+    public Slot markDirty() {
+        checkMutable();
+        return invalidateRender();
+    }
+
+    /**
+     * Сбрасывает кэш отрисовки, не считая это изменением слота.
+     * Используется, когда меняются внешние данные, например загрузилась текстура головы.
+     * @return текущий экземпляр Slot.
+     */
+    protected Slot invalidateRender() {
+        modCount++;
+        SlotRenderCache cache = renderCache;
+        if (cache != null) cache.clear();
         return this;
     }
 
+    /**
+     * Проверяет, является ли слот общим для нескольких меню.
+     * Общий слот нельзя изменять, изменяйте его копию из {@link #copy()}.
+     * @return true, если слот общий.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Помечает слот общим для нескольких меню, например созданных по одному {@link com.ppfs.ppfs_libs.models.menu.MenuTemplate}.
+     * После этого любые изменения слота через его методы запрещены.
+     * @return текущий экземпляр Slot.
+     */
+    public Slot markShared() {
+        this.shared = true;
+        return this;
+    }
+
+    /**
+     * Создаёт независимую копию слота. Копия не является общей.
+     * Наследники переопределяют метод, чтобы копировать собственные поля.
+     * @return копия слота.
+     */
+    public Slot copy() {
+        Slot copy = new Slot();
+        copyTo(copy);
+        return copy;
+    }
+
+    /**
+     * Копирует данные слота в другой экземпляр.
+     * @param copy слот, в который копируются данные.
+     */
+    protected void copyTo(Slot copy) {
+        copy.displayName = displayName != null ? displayName.copy() : null;
+        copy.lore = lore != null ? lore.copy() : null;
+        copy.material = material;
+        copy.listener = listener;
+        copy.asyncListener = asyncListener;
+        copy.clickLimit = clickLimit;
+        copy.meta = meta != null ? meta.clone() : null;
+        copy.position = position;
+        copy.amount = amount;
+        copy.customModelData = customModelData;
+        copy.enchantments = new ConcurrentHashMap<>(enchantments);
+        copy.itemFlags = new HashSet<>(itemFlags);
+        copy.placeholders = new Placeholders().add(placeholders).setMaxLines(placeholders.getMaxLines());
+        copy.renderTtlNanos = renderTtlNanos;
+    }
+
+    /**
+     * Запрещает изменение общего слота.
+     * @throws IllegalStateException если слот общий.
+     */
+    protected void checkMutable() {
+        if (shared) {
+            throw new IllegalStateException("Слот общий для нескольких меню, изменяйте его копию: " + position);
+        }
+    }
+
     /**
      * Создает экземпляр слота из ItemStack.
      * @param item объект ItemStack.
@@ -344,6 +555,7 @@ public class Slot implements ISlot{
      * @return обновленный экземпляр Slot.
      */
     public Slot fromItemStack(ItemStack item) {
+        checkMutable();
         setMaterial(item.getType());
         setAmount(item.getAmount());
 
@@ -394,30 +606,13 @@ public class Slot implements ISlot{
      * Генерирует мета-данные (ItemMeta) для указанного ItemStack.
      * @param item объект ItemStack.
      * @return объект ItemMeta.
+     * @deprecated переопределяйте {@link #getMeta(ItemStack, Player, PlaceholderScope)}.
+     * Переопределение этого метода по-прежнему используется при рендере, но без области плейсхолдеров меню.
      */
+    @Deprecated
     public ItemMeta getMeta(ItemStack item){
-        ItemMeta meta = this.meta != null ? this.meta : item.getItemMeta();
-
-        if (displayName != null) {
-            displayName.addPlaceholders(getPlaceholders());
-            meta.displayName(displayName.getComponent());
-        }
-
-        if (lore != null) {
-            lore.addPlaceholders(getPlaceholders());
-            meta.lore(lore.getComponents());
-        }
-
-        enchantments.forEach((enchantment, level) -> meta.addEnchant(enchantment, level, true));
-        if (!itemFlags.isEmpty()) {
-            meta.addItemFlags(itemFlags.toArray(new ItemFlag[0]));
-        }
-
-        if (customModelData != 0) {
-            meta.setCustomModelData(customModelData);
-        }
-
-        return meta;
+        if (isLegacyMeta()) return buildMeta(item, null, PlaceholderScope.global());
+        return getMeta(item, null, PlaceholderScope.global());
     }
 
     /**
@@ -425,18 +620,40 @@ public class Slot implements ISlot{
      * @param item объект ItemStack.
      * @param player объект игрок.
      * @return объект ItemMeta.
+     * @deprecated переопределяйте {@link #getMeta(ItemStack, Player, PlaceholderScope)}.
+     * Переопределение этого метода по-прежнему используется при рендере, но без области плейсхолдеров меню.
      */
+    @Deprecated
     public ItemMeta getMeta(ItemStack item, Player player) {
-        ItemMeta meta = this.meta != null ? this.meta : item.getItemMeta();
+        if (isLegacyMeta()) return buildMeta(item, player, PlaceholderScope.global());
+        return getMeta(item, player, PlaceholderScope.global());
+    }
+
+    /**
+     * Генерирует мета-данные (ItemMeta) для указанного ItemStack.
+     * Плейсхолдеры ищутся по цепочке: игрок → слот → переданная область (меню, плагин, глобальная).
+     * Области игрока и слота создаются только на время рендера, сообщения слота не изменяются.
+     * @param item объект ItemStack.
+     * @param player объект игрок, может быть null.
+     * @param scope родительская область плейсхолдеров.
+     * @return объект ItemMeta.
+     */
+    public ItemMeta getMeta(ItemStack item, Player player, PlaceholderScope scope) {
+        if (LEGACY_PLAYER_META.get(getClass())) return getMeta(item, player);
+        if (LEGACY_META.get(getClass())) return getMeta(item);
+        return buildMeta(item, player, scope);
+    }
+
+    private ItemMeta buildMeta(ItemStack item, Player player, PlaceholderScope scope) {
+        ItemMeta meta = this.meta != null ? this.meta.clone() : item.getItemMeta();
+        PlaceholderScope renderScope = getScope(player, scope);
 
         if (displayName != null) {
-            displayName.addPlaceholders(getPlaceholders(player));
-            meta.displayName(displayName.getComponent(player));
+            meta.displayName(displayName.getComponent(player, renderScope));
         }
 
         if (lore != null) {
-            lore.addPlaceholders(getPlaceholders(player));
-            meta.lore(lore.getComponents(player));
+            meta.lore(lore.getComponents(player, renderScope));
         }
 
         enchantments.forEach((enchantment, level) -> meta.addEnchant(enchantment, level, true));
@@ -450,21 +667,149 @@ public class Slot implements ISlot{
         return meta;
     }
 
+    private PlaceholderScope getScope(Player player, PlaceholderScope scope) {
+        PlaceholderScope slotScope = (scope != null ? scope : PlaceholderScope.global()).child(placeholders);
+        if (player == null) return slotScope;
+
+        Placeholders playerPlaceholders = getPlaceholders(player);
+        if (playerPlaceholders == null || playerPlaceholders == placeholders) return slotScope;
+        return slotScope.child(playerPlaceholders);
+    }
+
     /**
      * Преобразует данные слота в ItemStack.
      * @param player объект HumanEntity (игрок).
      * @return объект ItemStack.
+     * @deprecated переопределяйте {@link #toItemStack(Player, PlaceholderScope)}
+     * или {@link #buildItemStack(Player, PlaceholderScope)}.
+     * Переопределение этого метода по-прежнему используется при рендере, но без области плейсхолдеров меню.
      */
+    @Deprecated
     public ItemStack toItemStack(Player player) {
+        if (LEGACY_ITEM.get(getClass())) return renderItemStack(player, PlaceholderScope.global());
+        return toItemStack(player, PlaceholderScope.global());
+    }
+
+    /**
+     * Преобразует данные слота в ItemStack, используя область плейсхолдеров меню.
+     * @param player объект игрок.
+     * @param scope родительская область плейсхолдеров.
+     * @return объект ItemStack.
+     */
+    public ItemStack toItemStack(Player player, PlaceholderScope scope) {
+        if (LEGACY_ITEM.get(getClass())) return toItemStack(player);
+        return renderItemStack(player, scope);
+    }
+
+    private ItemStack renderItemStack(Player player, PlaceholderScope scope) {
+        PlaceholderScope parent = scope != null ? scope : PlaceholderScope.global();
+        if (isLegacy()) return buildItemStack(player, parent);
+        Placeholders playerPlaceholders = player != null ? getPlaceholders(player) : null;
+        if (playerPlaceholders == placeholders) playerPlaceholders = null;
+
+        boolean dynamic = player != null && isDynamic(parent, playerPlaceholders);
+        if (dynamic && renderTtlNanos <= 0) return buildItemStack(player, parent);
+
+        SlotRenderCache.State state = new SlotRenderCache.State(modCount, getContentVersion(), parent, parent.getVersion(),
+                playerPlaceholders, playerPlaceholders != null ? playerPlaceholders.getVersion() : 0);
+        UUID key = dynamic || playerPlaceholders != null ? player.getUniqueId() : null;
+        long now = System.nanoTime();
+
+        SlotRenderCache cache = renderCache;
+        if (cache == null) renderCache = cache = new SlotRenderCache();
+
+        ItemStack prototype = cache.get(key, state, now);
+        if (prototype == null) {
+            prototype = buildItemStack(player, parent);
+            cache.put(key, state, prototype, dynamic ? now + renderTtlNanos : Long.MAX_VALUE);
+        }
+        return prototype.clone();
+    }
+
+    /**
+     * Вызывается, когда слот добавлен в меню.
+     * @param menu меню.
+     * @param position позиция слота в меню.
+     */
+    public void attach(Menu menu, int position) {
+    }
+
+    /**
+     * Вызывается, когда слот удалён из меню.
+     * @param menu меню.
+     * @param position позиция слота в меню.
+     */
+    public void detach(Menu menu, int position) {
+    }
+
+    /**
+     * Собирает новый ItemStack слота без использования кэша.
+     * @param player объект игрок, может быть null.
+     * @param scope родительская область плейсхолдеров.
+     * @return объект ItemStack.
+     */
+    protected ItemStack buildItemStack(Player player, PlaceholderScope scope) {
         ItemStack item = new ItemStack(material);
         item.setAmount(amount);
 
-        ItemMeta itemMeta = getMeta(item, player);
+        ItemMeta itemMeta = getMeta(item, player, scope);
 
         item.setItemMeta(itemMeta);
         return item;
     }
 
+    /**
+     * Проверяет, можно ли собрать предмет слота вне основного потока:
+     * слот не использует PlaceholderAPI, ленивые плейсхолдеры и API сервера.
+     * Слоты с плейсхолдерами игрока, то есть с переопределённым {@link #getPlaceholders(HumanEntity)},
+     * и слоты с переопределёнными устаревшими методами рендера рисуются только в основном потоке:
+     * они могут обращаться к API сервера.
+     * @param player объект игрок, может быть null.
+     * @param scope родительская область плейсхолдеров.
+     * @return true, если слот можно отрисовать в фоне.
+     */
+    public boolean canRenderAsync(Player player, PlaceholderScope scope) {
+        if (isLegacy()) return false;
+        if (player != null && getPlaceholders(player) != placeholders) return false;
+        return !isDynamic(scope != null ? scope : PlaceholderScope.global(), null);
+    }
+
+    private boolean isLegacy() {
+        return LEGACY_ITEM.get(getClass()) || isLegacyMeta();
+    }
+
+    private boolean isLegacyMeta() {
+        return LEGACY_PLAYER_META.get(getClass()) || LEGACY_META.get(getClass());
+    }
+
+    private static ClassValue<Boolean> overrides(String name, Class<?>... parameters) {
+        return new ClassValue<>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                try {
+                    return type.getMethod(name, parameters).getDeclaringClass() != Slot.class;
+                } catch (NoSuchMethodException e) {
+                    return false;
+                }
+            }
+        };
+    }
+
+    private boolean isDynamic(PlaceholderScope scope, Placeholders playerPlaceholders) {
+        return displayName != null && displayName.isPlayerDependent()
+                || lore != null && lore.isPlayerDependent()
+                || placeholders.hasProviders()
+                || playerPlaceholders != null && playerPlaceholders.hasProviders()
+                || scope.hasProviders();
+    }
+
+    private long getContentVersion() {
+        long version = placeholders.getVersion();
+        if (displayName != null) version += displayName.getVersion();
+        if (lore != null) version += lore.getVersion();
+        return version;
+    }
+
     /**
      * Возвращает слушатель кликов для слота.
      * Если слушатель не установлен, возвращается слушатель по умолчанию, который ничего не делает.
@@ -0,0 +1,71 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.menu.slots;
+
+import com.ppfs.ppfs_libs.models.message.PlaceholderScope;
+import com.ppfs.ppfs_libs.models.message.Placeholders;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Кэш отрисованных предметов слота.
+ * Для слотов без зависимости от игрока хранится один прототип,
+ * для зависящих от игрока - ограниченный по размеру LRU по UUID.
+ * Запись действительна, пока совпадает состояние, из которого она построена.
+ */
+final class SlotRenderCache {
+    static final int MAX_PLAYERS = 64;
+
+    private Entry shared;
+    private final Map<UUID, Entry> players = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, SlotRenderCache.Entry> eldest) {
+            return size() > MAX_PLAYERS;
+        }
+    };
+
+    synchronized ItemStack get(UUID player, State state, long now) {
+        Entry entry = player == null ? shared : players.get(player);
+        if (entry == null || now >= entry.expiresAt() || !entry.state().matches(state)) return null;
+        return entry.prototype();
+    }
+
+    synchronized void put(UUID player, State state, ItemStack prototype, long expiresAt) {
+        Entry entry = new Entry(state, prototype, expiresAt);
+        if (player == null) {
+            shared = entry;
+        } else {
+            players.put(player, entry);
+        }
+    }
+
+    synchronized void clear() {
+        shared = null;
+        players.clear();
+    }
+
+    /**
+     * Всё, от чего зависит результат отрисовки слота.
+     * Области сравниваются по цепочке наборов плейсхолдеров, а не по объекту обёртки.
+     */
+    record State(int slotVersion, long contentVersion, PlaceholderScope scope, long scopeVersion,
+                 Placeholders playerPlaceholders, int playerVersion) {
+
+        boolean matches(State other) {
+            if (slotVersion != other.slotVersion || contentVersion != other.contentVersion
+                    || scopeVersion != other.scopeVersion || !scope.sameChain(other.scope)) {
+                return false;
+            }
+            if (playerPlaceholders == other.playerPlaceholders) return playerVersion == other.playerVersion;
+            return playerPlaceholders != null && playerPlaceholders.sameValues(other.playerPlaceholders);
+        }
+    }
+
+    private record Entry(State state, ItemStack prototype, long expiresAt) {
+    }
+}
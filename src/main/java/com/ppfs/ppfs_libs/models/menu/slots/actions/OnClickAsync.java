@@ -0,0 +1,18 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.menu.slots.actions;
+
+import com.ppfs.ppfs_libs.models.menu.MenuMutation;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.ClickType;
+
+/**
+ * Асинхронный обработчик клика. Выполняется вне основного потока,
+ * поэтому не должен обращаться к миру, инвентарям и событию клика.
+ */
+@FunctionalInterface
+public interface OnClickAsync {
+    MenuMutation run(Player player, ClickType click);
+}
@@ -0,0 +1,92 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.message;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import net.kyori.adventure.text.Component;
+
+import java.util.function.Function;
+
+/**
+ * Общий кэш компонентов по итоговой строке сообщения (после подстановки плейсхолдеров).
+ * Одинаковые строки разных сообщений, например статичный lore или заголовки меню,
+ * разбираются один раз и используют один неизменяемый компонент.
+ * Размер ограничен суммарной длиной ключей, вытесняются давно не использованные записи.
+ */
+public final class ComponentCache {
+    private static final long DEFAULT_MAX_WEIGHT = 2_000_000;
+    private static final ComponentCache instance = new ComponentCache();
+
+    private volatile Cache<String, Component> cache = create(DEFAULT_MAX_WEIGHT);
+    private volatile CacheStats previousStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    private ComponentCache() {
+    }
+
+    public static ComponentCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Возвращает компонент для строки, разбирая её при промахе.
+     * @param rendered итоговая строка сообщения.
+     * @param loader функция разбора строки.
+     * @return компонент.
+     */
+    public Component get(String rendered, Function<String, Component> loader) {
+        Cache<String, Component> current = cache;
+        Component component = current.getIfPresent(rendered);
+        if (component == null) {
+            component = loader.apply(rendered);
+            current.put(rendered, component);
+        }
+        return component;
+    }
+
+    /**
+     * Устанавливает максимальный суммарный размер ключей в символах.
+     * Текущие записи при этом сбрасываются, счётчики сохраняются.
+     * @param maxWeight максимальный размер.
+     */
+    public void setMaximumWeight(long maxWeight) {
+        Cache<String, Component> old = cache;
+        cache = create(maxWeight);
+        previousStats = previousStats.plus(old.stats());
+    }
+
+    public long getHitCount() {
+        return getStats().hitCount();
+    }
+
+    public long getMissCount() {
+        return getStats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return getStats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return previousStats.plus(cache.stats());
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static Cache<String, Component> create(long maxWeight) {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String key, Component value) -> key.length() + 1)
+                .recordStats()
+                .build();
+    }
+}
@@ -1,11 +1,10 @@
 package com.ppfs.ppfs_libs.models.message;
 
+import lombok.AccessLevel;
 import lombok.Getter;
-import me.clip.placeholderapi.PlaceholderAPI;
 import net.kyori.adventure.audience.Audience;
+import net.kyori.adventure.audience.ForwardingAudience;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.format.TextColor;
-import net.kyori.adventure.text.format.TextDecoration;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -13,8 +12,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 @Getter
 public class Message {
@@ -23,7 +23,12 @@ public class Message {
     private final LegacyComponentSerializer serializer = LegacyComponentSerializer.builder().hexColors().build();
     private final List<String> rawMessages = new ArrayList<>();
     private final transient Placeholders placeholders = new Placeholders();
-    private static final Pattern TAG_PATTERN = Pattern.compile("<(/?)([a-zA-Z_#0-9]+)>");
+    @Getter(AccessLevel.NONE)
+    private transient volatile MessageTemplate[] templates;
+    @Getter(AccessLevel.NONE)
+    private transient boolean truncationReported;
+    @Getter(AccessLevel.NONE)
+    private transient volatile int version;
 
     public Message(String... messages) {
         rawMessages.addAll(Arrays.asList(messages));
@@ -41,11 +46,15 @@ public class Message {
 
     public Message add(String... messages) {
         rawMessages.addAll(Arrays.asList(messages));
+        templates = null;
+        version++;
         return this;
     }
 
     public Message add(List<String> messages) {
         rawMessages.addAll(messages);
+        templates = null;
+        version++;
         return this;
     }
 
@@ -53,6 +62,8 @@ public class Message {
         for (Message msg : msgs) {
             this.rawMessages.addAll(msg.rawMessages);
         }
+        templates = null;
+        version++;
         return this;
     }
 
@@ -60,6 +71,8 @@ public class Message {
         for (Component component: components){
             rawMessages.add(serializer.serialize(component));
         }
+        templates = null;
+        version++;
         return this;
     }
 
@@ -71,6 +84,28 @@ public class Message {
         this.placeholders.add(placeholders);
     }
 
+    /**
+     * Возвращает номер версии сообщения, который меняется при изменении строк или плейсхолдеров.
+     * @return номер версии.
+     */
+    public long getVersion() {
+        return ((long) version << 32) + placeholders.getVersion();
+    }
+
+    /**
+     * Проверяет, может ли результат рендера отличаться для разных игроков или меняться со временем:
+     * сообщение содержит плейсхолдеры PlaceholderAPI или ленивые плейсхолдеры.
+     * @return true, если результат зависит от игрока.
+     */
+    public boolean isPlayerDependent() {
+        if (placeholders.hasProviders()) return true;
+        if (!placeholdersApi) return false;
+        for (String raw : rawMessages) {
+            if (raw.indexOf('%') >= 0) return true;
+        }
+        return false;
+    }
+
     public Component getComponent() {
         return getParsedComponents().stream().reduce(Component.empty(), Component::append);
     }
@@ -79,6 +114,18 @@ public class Message {
         return getParsedComponents(player).stream().reduce(Component.empty(), Component::append);
     }
 
+    /**
+     * Возвращает компонент, беря значения плейсхолдеров из области видимости.
+     * Значения области имеют приоритет над собственными плейсхолдерами сообщения,
+     * сами плейсхолдеры сообщения при этом не изменяются.
+     * @param player игрок для PlaceholderAPI, может быть null.
+     * @param scope область видимости плейсхолдеров.
+     * @return компонент.
+     */
+    public Component getComponent(Player player, PlaceholderScope scope) {
+        return parseMessages(player, scope).stream().reduce(Component.empty(), Component::append);
+    }
+
     public List<Component> getComponents() {
         return getParsedComponents();
     }
@@ -87,39 +134,106 @@ public class Message {
         return getParsedComponents(player);
     }
 
+    /**
+     * Возвращает компоненты, беря значения плейсхолдеров из области видимости.
+     * @param player игрок для PlaceholderAPI, может быть null.
+     * @param scope область видимости плейсхолдеров.
+     * @return список компонентов.
+     */
+    public List<Component> getComponents(Player player, PlaceholderScope scope) {
+        return parseMessages(player, scope);
+    }
+
     private List<Component> getParsedComponents() {
-        return parseMessages(rawMessages, null);
+        return parseMessages(null, null);
     }
 
     private List<Component> getParsedComponents(Player player) {
-        return parseMessages(rawMessages, player);
+        return parseMessages(player, null);
     }
 
-    private List<Component> parseMessages(List<String> messages, Player player) {
+    private List<Component> parseMessages(Player player, PlaceholderScope scope) {
         List<Component> components = new ArrayList<>();
-        for (String rawMessage : messages) {
-            List<String> parsedMessage = placeholders.apply(rawMessage);
-            parsedMessage = replacePlaceholders(parsedMessage, player);
-            for (String str : parsedMessage) {
-                components.add(parseTagsToComponent(str));
-            }
+        UnaryOperator<String> postProcess = player != null && placeholdersApi ? msg -> replacePlaceholders(msg, player) : null;
+        Function<String, List<String>> values = lookup(player, scope);
+        for (MessageTemplate template : getTemplates()) {
+            reportTruncation(template, template.render(values, placeholders.getMaxLines(), postProcess, components::add));
         }
         return components;
     }
 
-    private List<String> replacePlaceholders(List<String> messages, Player player) {
-        return messages.stream().map(msg -> replacePlaceholders(msg, player)).toList();
+    private Function<String, List<String>> lookup(Player player, PlaceholderScope scope) {
+        if (scope == null) {
+            if (!placeholders.hasProviders()) return placeholders::get;
+            return key -> placeholders.get(key, player, null);
+        }
+        return key -> {
+            List<String> values = scope.get(key, player);
+            return values != null ? values : placeholders.get(key, player, scope);
+        };
+    }
+
+    private void reportTruncation(MessageTemplate template, boolean truncated) {
+        if (!truncated || truncationReported) return;
+        truncationReported = true;
+        log.warn("Развёртка плейсхолдеров обрезана до {} строк: {}", placeholders.getMaxLines(), template.getRaw());
     }
 
     private String replacePlaceholders(String message, Player player) {
         if (player != null && placeholdersApi) {
-            return PlaceholderAPI.setPlaceholders(player, message);
+            return PlaceholderApiCache.getInstance().apply(player, message);
         }
         return message;
     }
 
+    /**
+     * Заранее компилирует строки сообщения, чтобы первый рендер не тратил на это время.
+     * @return текущий экземпляр сообщения.
+     */
+    public Message compile() {
+        getTemplates();
+        return this;
+    }
+
+    /**
+     * Создаёт независимую копию сообщения. Скомпилированные шаблоны неизменяемы и переиспользуются копией.
+     * @return копия сообщения.
+     */
+    public Message copy() {
+        Message copy = new Message(rawMessages);
+        copy.placeholders.add(placeholders);
+        copy.templates = templates;
+        return copy;
+    }
+
+    /**
+     * Проверяет, встречается ли плейсхолдер {@code <key>} в строках сообщения.
+     * @param key ключ плейсхолдера.
+     * @return true, если ключ используется.
+     */
+    public boolean usesKey(String key) {
+        for (MessageTemplate template : getTemplates()) {
+            if (template.getKeys().contains(key)) return true;
+        }
+        return false;
+    }
+
+    private MessageTemplate[] getTemplates() {
+        MessageTemplate[] compiled = templates;
+        if (compiled == null || compiled.length != rawMessages.size()) {
+            compiled = new MessageTemplate[rawMessages.size()];
+            for (int i = 0; i < compiled.length; i++) {
+                compiled[i] = MessageTemplate.compile(rawMessages.get(i));
+            }
+            templates = compiled;
+        }
+        return compiled;
+    }
+
     public void send(Audience audience) {
-        rawMessages.forEach(rawMessage -> sendToAudience(audience, rawMessage));
+        for (MessageTemplate template : getTemplates()) {
+            sendToAudience(audience, template);
+        }
     }
 
     public void send(UUID uuid) {
@@ -131,8 +245,36 @@ public class Message {
         }
     }
 
+    /**
+     * Отправляет сообщение сразу многим получателям.
+     * Сообщение без плейсхолдеров PlaceholderAPI собирается один раз для всех,
+     * иначе игроки группируются по получившемуся тексту и делят один набор компонентов.
+     * @param audiences получатели.
+     */
+    public void broadcast(Iterable<? extends Audience> audiences) {
+        broadcast(audiences, Audience::sendMessage);
+    }
+
+    /**
+     * Отправляет сообщение аудитории, разворачивая {@link ForwardingAudience} на отдельных получателей.
+     * @param audience аудитория.
+     */
+    public void broadcast(Audience audience) {
+        broadcast(audiencesOf(audience), Audience::sendMessage);
+    }
+
+    public void broadcastActionBar(Iterable<? extends Audience> audiences) {
+        broadcast(audiences, Audience::sendActionBar);
+    }
+
+    public void broadcastActionBar(Audience audience) {
+        broadcast(audiencesOf(audience), Audience::sendActionBar);
+    }
+
     public void sendActionBar(Audience audience) {
-        rawMessages.forEach(rawMessage -> sendActionBarToAudience(audience, rawMessage));
+        for (MessageTemplate template : getTemplates()) {
+            sendActionBarToAudience(audience, template);
+        }
     }
 
     public void sendActionBar(UUID uuid) {
@@ -144,116 +286,62 @@ public class Message {
         }
     }
 
-    private void sendToAudience(Audience audience, String rawMessage) {
-        List<String> parsedMessage = placeholders.apply(rawMessage);
-        parsedMessage.forEach(str -> audience.sendMessage(parseTagsToComponent(str)));
-    }
-
-    private void sendActionBarToAudience(Audience audience, String rawMessage) {
-        List<String> parsedMessage = placeholders.apply(rawMessage);
-        parsedMessage.forEach(str -> audience.sendActionBar(parseTagsToComponent(str)));
+    private Iterable<? extends Audience> audiencesOf(Audience audience) {
+        if (audience instanceof ForwardingAudience forwardingAudience) {
+            return forwardingAudience.audiences();
+        }
+        return List.of(audience);
     }
 
-    private Component parseTagsToComponent(String message) {
-        Component result = Component.empty();
-        result = result.style(style -> style.decoration(TextDecoration.ITALIC, false));
-        Deque<TextColor> colorStack = new ArrayDeque<>();
-        Deque<TextDecoration> decorationStack = new ArrayDeque<>();
-
-        Matcher matcher = TAG_PATTERN.matcher(message);
-        int lastEnd = 0;
-
-        while (matcher.find()) {
-            String textBeforeTag = message.substring(lastEnd, matcher.start());
-            if (!textBeforeTag.isEmpty()) {
-                Component textComponent = Component.text(textBeforeTag);
-                applyStyles(colorStack, decorationStack, textComponent);
-                result = result.append(textComponent);
+    private void broadcast(Iterable<? extends Audience> audiences, BiConsumer<Audience, Component> sender) {
+        if (placeholders.hasProviders()) {
+            for (Audience audience : audiences) {
+                for (MessageTemplate template : getTemplates()) {
+                    reportTruncation(template, template.render(lookup(audience), placeholders.getMaxLines(), null,
+                            component -> sender.accept(audience, component)));
+                }
             }
-
-            String tagType = matcher.group(1);
-            String tagName = matcher.group(2);
-
-            if (tagType.isEmpty()) {
-                handleOpeningTag(colorStack, decorationStack, tagName);
+            return;
+        }
+        List<String> lines = placeholdersApi ? expandLines() : null;
+        boolean papi = lines != null && lines.stream().anyMatch(line -> line.indexOf('%') >= 0);
+
+        List<Component> shared = null;
+        Map<String, List<Component>> rendered = papi ? new HashMap<>() : null;
+
+        for (Audience audience : audiences) {
+            List<Component> components;
+            if (papi && audience instanceof Player player) {
+                List<String> resolved = lines.stream().map(line -> replacePlaceholders(line, player)).toList();
+                components = rendered.computeIfAbsent(String.join("\0", resolved),
+                        key -> resolved.stream().map(MessageTemplate::parse).toList());
             } else {
-                handleClosingTag(colorStack, decorationStack, tagName);
+                if (shared == null) shared = getParsedComponents();
+                components = shared;
+            }
+            for (Component component : components) {
+                sender.accept(audience, component);
             }
-            lastEnd = matcher.end();
-        }
-
-        String remainingText = message.substring(lastEnd);
-        if (!remainingText.isEmpty()) {
-            Component textComponent = Component.text(remainingText);
-            applyStyles(colorStack, decorationStack, textComponent);
-            result = result.append(textComponent);
-        }
-        return result;
-    }
-
-    private void applyStyles(Deque<TextColor> colorStack, Deque<TextDecoration> decorationStack, Component textComponent) {
-        if (!colorStack.isEmpty()) {
-            textComponent = textComponent.color(colorStack.peek());
-        }
-        for (TextDecoration decoration : decorationStack) {
-            textComponent = textComponent.decorate(decoration);
         }
     }
 
-    private void handleOpeningTag(Deque<TextColor> colorStack, Deque<TextDecoration> decorationStack, String tagName) {
-        TextColor color = getTextColor(tagName);
-        if (color != null) {
-            colorStack.push(color);
-        } else {
-            TextDecoration decoration = getTextDecoration(tagName);
-            if (decoration != null) {
-                decorationStack.push(decoration);
-            }
+    private List<String> expandLines() {
+        List<String> lines = new ArrayList<>();
+        for (MessageTemplate template : getTemplates()) {
+            reportTruncation(template, template.expand(placeholders, lines::add));
         }
+        return lines;
     }
 
-    private void handleClosingTag(Deque<TextColor> colorStack, Deque<TextDecoration> decorationStack, String tagName) {
-        TextColor color = getTextColor(tagName);
-        if (color != null && !colorStack.isEmpty()) {
-            colorStack.pop();
-        } else {
-            TextDecoration decoration = getTextDecoration(tagName);
-            if (decoration != null && !decorationStack.isEmpty()) {
-                decorationStack.pop();
-            }
-        }
+    private void sendToAudience(Audience audience, MessageTemplate template) {
+        reportTruncation(template, template.render(lookup(audience), placeholders.getMaxLines(), null, audience::sendMessage));
     }
 
-    private TextColor getTextColor(String tagName) {
-        return switch (tagName.toLowerCase()) {
-            case "red" -> TextColor.color(0xFF5555);
-            case "green" -> TextColor.color(0x55FF55);
-            case "blue" -> TextColor.color(0x5555FF);
-            case "yellow" -> TextColor.color(0xFFFF55);
-            case "aqua" -> TextColor.color(0x55FFFF);
-            case "gold" -> TextColor.color(0xFFAA00);
-            case "gray" -> TextColor.color(0xAAAAAA);
-            case "dark_red" -> TextColor.color(0xAA0000);
-            case "dark_green" -> TextColor.color(0x00AA00);
-            case "dark_blue" -> TextColor.color(0x0000AA);
-            case "dark_aqua" -> TextColor.color(0x00AAAA);
-            case "dark_gray" -> TextColor.color(0x555555);
-            case "dark_purple" -> TextColor.color(0xAA00AA);
-            case "light_purple" -> TextColor.color(0xFF55FF);
-            case "white" -> TextColor.color(0xFFFFFF);
-            case "black" -> TextColor.color(0x000000);
-            default -> null;
-        };
+    private void sendActionBarToAudience(Audience audience, MessageTemplate template) {
+        reportTruncation(template, template.render(lookup(audience), placeholders.getMaxLines(), null, audience::sendActionBar));
     }
 
-    private TextDecoration getTextDecoration(String tagName) {
-        return switch (tagName) {
-            case "bold" -> TextDecoration.BOLD;
-            case "italic" -> TextDecoration.ITALIC;
-            case "underline" -> TextDecoration.UNDERLINED;
-            case "strikethrough" -> TextDecoration.STRIKETHROUGH;
-            case "obfuscated" -> TextDecoration.OBFUSCATED;
-            default -> null;
-        };
+    private Function<String, List<String>> lookup(Audience audience) {
+        return lookup(audience instanceof Player player ? player : null, null);
     }
 }
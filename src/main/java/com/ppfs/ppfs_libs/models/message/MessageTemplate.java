@@ -0,0 +1,466 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.message;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextColor;
+import net.kyori.adventure.text.format.TextDecoration;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Скомпилированная строка сообщения.
+ * Строка разбирается один раз: литералы хранятся вместе с уже вычисленным стилем,
+ * плейсхолдеры вида {@code <key>} становятся "дырками", которые заполняются при рендере.
+ * Экземпляр неизменяем и может использоваться из разных потоков.
+ */
+public final class MessageTemplate {
+    private static final TextDecoration[] DECORATIONS = TextDecoration.values();
+    private static final Map<StyleKey, Style> STYLES = new ConcurrentHashMap<>();
+    private static final int MAX_INTERNED_STYLES = 4096;
+
+    private final String raw;
+    private final boolean empty;
+    private final boolean hasPercent;
+
+    private final String[] texts;
+    private final int[] holes;
+    private final Style[] styles;
+
+    private final String[] keys;
+    private final String[] fallbacks;
+
+    private final String[] rawParts;
+    private final int[] rawHoles;
+    private final boolean gradientHoles;
+
+    private final Component staticComponent;
+
+    private MessageTemplate(String raw, List<String> texts, List<Integer> holes, List<Style> styles,
+                            List<String> keys, List<String> fallbacks,
+                            List<String> rawParts, List<Integer> rawHoles, boolean gradientHoles) {
+        this.raw = raw;
+        this.empty = raw.isEmpty();
+        this.hasPercent = raw.indexOf('%') >= 0;
+        this.texts = texts.toArray(new String[0]);
+        this.holes = holes.stream().mapToInt(Integer::intValue).toArray();
+        this.styles = styles.toArray(new Style[0]);
+        this.keys = keys.toArray(new String[0]);
+        this.fallbacks = fallbacks.toArray(new String[0]);
+        this.rawParts = rawParts.toArray(new String[0]);
+        this.rawHoles = rawHoles.stream().mapToInt(Integer::intValue).toArray();
+        this.gradientHoles = gradientHoles;
+        this.staticComponent = this.keys.length == 0 && !empty
+                ? ComponentCache.getInstance().get(raw, key -> build(null)) : null;
+    }
+
+    /**
+     * Компилирует строку сообщения в шаблон.
+     * Поддерживаются именованные цвета, hex-цвета {@code <#RRGGBB>},
+     * градиенты {@code <gradient:#RRGGBB:#RRGGBB>} и декорации.
+     * Цвета градиента вычисляются здесь, один раз на шаблон.
+     * @param raw исходная строка с тегами и плейсхолдерами.
+     * @return скомпилированный шаблон.
+     */
+    public static MessageTemplate compile(String raw) {
+        if (raw == null) raw = "";
+        Compiler compiler = new Compiler();
+        TagLexer.tokenize(raw, compiler);
+        return compiler.finish(raw);
+    }
+
+    /**
+     * Возвращает исходную строку шаблона.
+     * @return исходная строка.
+     */
+    public String getRaw() {
+        return raw;
+    }
+
+    /**
+     * Проверяет, содержит ли шаблон плейсхолдеры.
+     * @return true, если плейсхолдеров нет.
+     */
+    public boolean isStatic() {
+        return keys.length == 0;
+    }
+
+    /**
+     * Возвращает ключи плейсхолдеров в порядке их первого появления.
+     * @return неизменяемый список ключей.
+     */
+    public List<String> getKeys() {
+        return List.of(keys);
+    }
+
+    /**
+     * Рендерит шаблон, передавая в sink по компоненту на каждую комбинацию значений плейсхолдеров.
+     * Комбинации перебираются лениво, количество строк ограничено {@link Placeholders#getMaxLines()}.
+     * @param placeholders значения плейсхолдеров.
+     * @param postProcess обработка готовой строки (например, PlaceholderAPI), может быть null.
+     * @param sink получатель компонентов.
+     * @return true, если часть строк была отброшена из-за ограничения.
+     */
+    public boolean render(Placeholders placeholders, UnaryOperator<String> postProcess, Consumer<Component> sink) {
+        return render(lookup(placeholders), placeholders.getMaxLines(), postProcess, sink);
+    }
+
+    /**
+     * Рендерит шаблон, получая значения плейсхолдеров через функцию поиска,
+     * например по цепочке {@link PlaceholderScope}.
+     * @param values функция, возвращающая значения ключа или null.
+     * @param maxLines максимальное количество строк.
+     * @param postProcess обработка готовой строки (например, PlaceholderAPI), может быть null.
+     * @param sink получатель компонентов.
+     * @return true, если часть строк была отброшена из-за ограничения.
+     */
+    public boolean render(Function<String, List<String>> values, int maxLines,
+                          UnaryOperator<String> postProcess, Consumer<Component> sink) {
+        if (empty) return false;
+
+        if (keys.length == 0) {
+            if (postProcess != null && hasPercent) {
+                sink.accept(renderSlow(null, postProcess));
+            } else {
+                sink.accept(staticComponent);
+            }
+            return false;
+        }
+
+        return forEachCombination(values, maxLines, chosen -> {
+            boolean slow = postProcess != null && hasPercent;
+            for (String value : chosen) {
+                if (value != null && (value.indexOf('<') >= 0 || value.indexOf('>') >= 0 || (postProcess != null && value.indexOf('%') >= 0))) {
+                    slow = true;
+                    break;
+                }
+            }
+            sink.accept(slow ? renderSlow(chosen, postProcess) : renderFast(chosen));
+        });
+    }
+
+    /**
+     * Разворачивает шаблон в строки с подставленными значениями, не разбирая теги.
+     * @param placeholders значения плейсхолдеров.
+     * @param sink получатель строк.
+     * @return true, если часть строк была отброшена из-за ограничения.
+     */
+    public boolean expand(Placeholders placeholders, Consumer<String> sink) {
+        return expand(lookup(placeholders), placeholders.getMaxLines(), sink);
+    }
+
+    private static Function<String, List<String>> lookup(Placeholders placeholders) {
+        if (!placeholders.hasProviders()) return placeholders::get;
+        return key -> placeholders.get(key, null, null);
+    }
+
+    /**
+     * Разворачивает шаблон в строки, получая значения плейсхолдеров через функцию поиска.
+     * @param values функция, возвращающая значения ключа или null.
+     * @param maxLines максимальное количество строк.
+     * @param sink получатель строк.
+     * @return true, если часть строк была отброшена из-за ограничения.
+     */
+    public boolean expand(Function<String, List<String>> values, int maxLines, Consumer<String> sink) {
+        if (empty) return false;
+        if (keys.length == 0) {
+            sink.accept(raw);
+            return false;
+        }
+        return forEachCombination(values, maxLines, chosen -> sink.accept(substitute(chosen)));
+    }
+
+    /**
+     * Разбирает готовую строку в компонент.
+     * @param message строка с тегами.
+     * @return компонент.
+     */
+    public static Component parse(String message) {
+        return ComponentCache.getInstance().get(message, MessageTemplate::parseUncached);
+    }
+
+    private static Component parseUncached(String message) {
+        MessageTemplate template = compile(message);
+        return template.staticComponent != null ? template.staticComponent : template.build(null);
+    }
+
+    private boolean forEachCombination(Function<String, List<String>> lookup, int maxLines, Consumer<String[]> action) {
+        List<?>[] values = new List<?>[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            List<String> value = lookup.apply(keys[i]);
+            if (value != null && value.isEmpty()) return false;
+            values[i] = value;
+        }
+
+        int produced = 0;
+        int[] indexes = new int[keys.length];
+        String[] chosen = new String[keys.length];
+        while (true) {
+            for (int i = 0; i < keys.length; i++) {
+                chosen[i] = values[i] == null ? null : (String) values[i].get(indexes[i]);
+            }
+
+            action.accept(chosen);
+            produced++;
+
+            int position = keys.length - 1;
+            while (position >= 0) {
+                if (values[position] != null && ++indexes[position] < values[position].size()) break;
+                indexes[position] = 0;
+                position--;
+            }
+            if (position < 0) return false;
+            if (produced >= maxLines) return true;
+        }
+    }
+
+    /**
+     * Подставляет значения в исходную строку, сохраняя теги.
+     * @param chosen значения для каждого ключа, null если значения нет.
+     * @return строка с подставленными значениями.
+     */
+    String substitute(String[] chosen) {
+        if (keys.length == 0) return raw;
+        StringBuilder builder = new StringBuilder(raw.length() + 16);
+        builder.append(rawParts[0]);
+        for (int i = 0; i < rawHoles.length; i++) {
+            int key = rawHoles[i];
+            builder.append(chosen[key] != null ? chosen[key] : "<" + keys[key] + ">");
+            builder.append(rawParts[i + 1]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Заполняет плейсхолдеры без повторного разбора строки.
+     * Результат совпадает с разбором подставленной строки, поэтому берётся из общего кэша;
+     * исключение составляют плейсхолдеры внутри градиента, которые окрашиваются целиком.
+     */
+    private Component renderFast(String[] chosen) {
+        if (gradientHoles) return build(chosen);
+        return ComponentCache.getInstance().get(substitute(chosen), key -> build(chosen));
+    }
+
+    private Component renderSlow(String[] chosen, UnaryOperator<String> postProcess) {
+        String message = substitute(chosen);
+        if (postProcess != null) message = postProcess.apply(message);
+        return parse(message);
+    }
+
+    private Component build(String[] chosen) {
+        TextComponent.Builder root = Component.text().decoration(TextDecoration.ITALIC, false);
+        StringBuilder run = new StringBuilder();
+        Style runStyle = null;
+
+        for (int i = 0; i < texts.length; i++) {
+            String text = texts[i];
+            if (text == null) {
+                int hole = holes[i];
+                text = chosen != null && chosen[hole] != null ? chosen[hole] : fallbacks[hole];
+            }
+            if (text.isEmpty()) continue;
+
+            if (runStyle != null && runStyle != styles[i]) {
+                root.append(Component.text(run.toString(), runStyle));
+                run.setLength(0);
+            }
+            runStyle = styles[i];
+            run.append(text);
+        }
+        if (runStyle != null) {
+            root.append(Component.text(run.toString(), runStyle));
+        }
+        return root.build();
+    }
+
+    private static Style style(TextColor color, int decorations) {
+        StyleKey key = new StyleKey(color, decorations);
+        Style style = STYLES.get(key);
+        if (style != null) return style;
+
+        Style.Builder builder = Style.style().color(color);
+        for (TextDecoration decoration : DECORATIONS) {
+            if ((decorations & (1 << decoration.ordinal())) != 0) {
+                builder.decoration(decoration, true);
+            }
+        }
+        style = builder.build();
+        if (STYLES.size() < MAX_INTERNED_STYLES) {
+            STYLES.putIfAbsent(key, style);
+        }
+        return style;
+    }
+
+    private record StyleKey(TextColor color, int decorations) {
+    }
+
+    private static final class Gradient {
+        private final TextColor[] colors;
+        private int length;
+
+        private Gradient(TextColor[] colors) {
+            this.colors = colors;
+        }
+    }
+
+    /**
+     * Фрагмент строки до окончательного вычисления стилей:
+     * текст или плейсхолдер вместе с цветом (или градиентом) и декорациями.
+     */
+    private record Piece(String text, int hole, TextColor color, Gradient gradient, int offset, int decorations) {
+    }
+
+    private static final class Compiler implements TagLexer.Visitor {
+        private final List<Piece> pieces = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        private final List<String> fallbacks = new ArrayList<>();
+        private final Deque<Object> colorStack = new ArrayDeque<>();
+        private final Deque<TextDecoration> decorationStack = new ArrayDeque<>();
+        private final List<String> rawParts = new ArrayList<>();
+        private final List<Integer> rawHoles = new ArrayList<>();
+        private boolean gradientHoles;
+        private int rawEnd;
+        private int decorations;
+
+        @Override
+        public void text(String source, int start, int end) {
+            Object color = colorStack.peek();
+            String text = source.substring(start, end);
+            if (color instanceof Gradient gradient) {
+                pieces.add(new Piece(text, -1, null, gradient, gradient.length, decorations));
+                gradient.length += text.length();
+            } else {
+                pieces.add(new Piece(text, -1, (TextColor) color, null, 0, decorations));
+            }
+        }
+
+        @Override
+        public void tag(String source, int start, int end, boolean closing, int nameStart, int nameEnd) {
+            String name = source.substring(nameStart, nameEnd);
+            boolean tagLike = TagLexer.isTagName(source, nameStart, nameEnd);
+
+            if (closing) {
+                if (!tagLike) {
+                    text(source, start, end);
+                } else if ((TagLexer.color(name) != null || name.equals("gradient")) && !colorStack.isEmpty()) {
+                    colorStack.pop();
+                } else if (TagLexer.decoration(name) != null && !decorationStack.isEmpty()) {
+                    decorationStack.pop();
+                    updateDecorations();
+                }
+                return;
+            }
+
+            TextColor color = tagLike ? TagLexer.color(name) : null;
+            if (color != null) {
+                colorStack.push(color);
+                return;
+            }
+            TextDecoration decoration = tagLike ? TagLexer.decoration(name) : null;
+            if (decoration != null) {
+                decorationStack.push(decoration);
+                updateDecorations();
+                return;
+            }
+            TextColor[] gradient = tagLike ? null : TagLexer.gradient(name);
+            if (gradient != null) {
+                colorStack.push(new Gradient(gradient));
+                return;
+            }
+
+            int index = keys.indexOf(name);
+            if (index == -1) {
+                index = keys.size();
+                keys.add(name);
+                // Неизвестный тег без значения отбрасывается, остальное остаётся как есть
+                fallbacks.add(tagLike ? "" : source.substring(start, end));
+            }
+            rawParts.add(source.substring(rawEnd, start));
+            rawHoles.add(index);
+            rawEnd = end;
+
+            Object current = colorStack.peek();
+            if (current instanceof Gradient currentGradient) {
+                gradientHoles = true;
+                pieces.add(new Piece(null, index, null, currentGradient, currentGradient.length++, decorations));
+            } else {
+                pieces.add(new Piece(null, index, (TextColor) current, null, 0, decorations));
+            }
+        }
+
+        private void updateDecorations() {
+            decorations = 0;
+            for (TextDecoration decoration : decorationStack) {
+                decorations |= 1 << decoration.ordinal();
+            }
+        }
+
+        private MessageTemplate finish(String raw) {
+            List<String> texts = new ArrayList<>();
+            List<Integer> holes = new ArrayList<>();
+            List<Style> styles = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            Style literalStyle = null;
+
+            for (Piece piece : pieces) {
+                if (piece.hole() >= 0) {
+                    if (literal.length() > 0) {
+                        addLiteral(literal, literalStyle, texts, holes, styles);
+                    }
+                    Gradient gradient = piece.gradient();
+                    TextColor color = gradient == null ? piece.color()
+                            : TagLexer.interpolate(gradient.colors, piece.offset(), gradient.length);
+                    texts.add(null);
+                    holes.add(piece.hole());
+                    styles.add(style(color, piece.decorations()));
+                    continue;
+                }
+
+                String text = piece.text();
+                Gradient gradient = piece.gradient();
+                if (gradient == null) {
+                    Style style = style(piece.color(), piece.decorations());
+                    if (literal.length() > 0 && style != literalStyle) {
+                        addLiteral(literal, literalStyle, texts, holes, styles);
+                    }
+                    literalStyle = style;
+                    literal.append(text);
+                    continue;
+                }
+
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (!Character.isLowSurrogate(c) || literal.length() == 0) {
+                        TextColor color = TagLexer.interpolate(gradient.colors, piece.offset() + i, gradient.length);
+                        Style style = style(color, piece.decorations());
+                        if (literal.length() > 0 && style != literalStyle) {
+                            addLiteral(literal, literalStyle, texts, holes, styles);
+                        }
+                        literalStyle = style;
+                    }
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                addLiteral(literal, literalStyle, texts, holes, styles);
+            }
+            rawParts.add(raw.substring(rawEnd));
+            return new MessageTemplate(raw, texts, holes, styles, keys, fallbacks, rawParts, rawHoles, gradientHoles);
+        }
+
+        private static void addLiteral(StringBuilder literal, Style style, List<String> texts, List<Integer> holes, List<Style> styles) {
+            texts.add(literal.toString());
+            holes.add(-1);
+            styles.add(style);
+            literal.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.message;
+
+import me.clip.placeholderapi.PlaceholderAPI;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Кэш результатов PlaceholderAPI по игроку и токену {@code %identifier_params%}.
+ * Каждый токен строки разрешается отдельно, поэтому одинаковые плейсхолдеры
+ * в разных строках и слотах вычисляются один раз.
+ * По умолчанию записи живут не дольше текущего тика.
+ */
+public final class PlaceholderApiCache {
+    private static final PlaceholderApiCache instance = new PlaceholderApiCache();
+
+    private final Set<String> bypass = ConcurrentHashMap.newKeySet();
+    private volatile Map<UUID, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile int cacheTick = Integer.MIN_VALUE;
+
+    private volatile boolean enabled = true;
+    private volatile boolean tickScoped = true;
+    private volatile long ttlNanos = Duration.ofSeconds(1).toNanos();
+    private volatile int maxEntries = 10_000;
+
+    private PlaceholderApiCache() {
+    }
+
+    public static PlaceholderApiCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Подставляет значения PlaceholderAPI в строку, используя кэш.
+     * @param player игрок, для которого разрешаются плейсхолдеры.
+     * @param message исходная строка.
+     * @return строка с подставленными значениями.
+     */
+    public String apply(Player player, String message) {
+        int start = message.indexOf('%');
+        if (start < 0) return message;
+        if (!enabled) return PlaceholderAPI.setPlaceholders(player, message);
+
+        Map<String, Entry> playerEntries = entriesOf(player.getUniqueId());
+        StringBuilder builder = null;
+        int lastEnd = 0;
+
+        while (start >= 0) {
+            int end = message.indexOf('%', start + 1);
+            if (end < 0) break;
+            if (!isToken(message, start + 1, end)) {
+                // Одиночный знак процента, как в "50% off for %player_name%":
+                // второй знак может открывать настоящий плейсхолдер, поэтому ищем с него.
+                start = end;
+                continue;
+            }
+
+            String token = message.substring(start, end + 1);
+            String value = resolve(player, playerEntries, token);
+            if (!value.equals(token)) {
+                if (builder == null) builder = new StringBuilder(message.length() + 16);
+                builder.append(message, lastEnd, start).append(value);
+                lastEnd = end + 1;
+            }
+            start = message.indexOf('%', end + 1);
+        }
+
+        if (builder == null) return message;
+        return builder.append(message, lastEnd, message.length()).toString();
+    }
+
+    /**
+     * Проверяет, похоже ли содержимое между знаками процента на {@code identifier_params},
+     * как это делает PlaceholderAPI: идентификатор непустой и состоит из букв, цифр и дефисов,
+     * за ним идёт подчёркивание, а пробелов в токене нет.
+     */
+    private static boolean isToken(String message, int from, int to) {
+        int separator = -1;
+        for (int i = from; i < to; i++) {
+            char c = message.charAt(i);
+            if (Character.isWhitespace(c)) return false;
+            if (separator >= 0) continue;
+            if (c == '_') {
+                separator = i;
+            } else if (!Character.isLetterOrDigit(c) && c != '-') {
+                return false;
+            }
+        }
+        return separator > from;
+    }
+
+    private String resolve(Player player, Map<String, Entry> playerEntries, String token) {
+        if (isBypassed(token)) return PlaceholderAPI.setPlaceholders(player, token);
+
+        long now = System.nanoTime();
+        Entry entry = playerEntries.get(token);
+        if (entry != null && now < entry.expiresAt) return entry.value;
+
+        String value = PlaceholderAPI.setPlaceholders(player, token);
+        if (playerEntries.put(token, new Entry(value, now + ttlNanos)) == null && size.incrementAndGet() > maxEntries) {
+            invalidateAll();
+        }
+        return value;
+    }
+
+    private Map<String, Entry> entriesOf(UUID uuid) {
+        if (tickScoped) {
+            int tick = Bukkit.getCurrentTick();
+            if (tick != cacheTick) {
+                cacheTick = tick;
+                invalidateAll();
+            }
+        }
+        return entries.computeIfAbsent(uuid, key -> new ConcurrentHashMap<>());
+    }
+
+    private boolean isBypassed(String token) {
+        if (bypass.isEmpty()) return false;
+        String name = token.substring(1, token.length() - 1);
+        if (bypass.contains(name)) return true;
+        int separator = name.indexOf('_');
+        return separator > 0 && bypass.contains(name.substring(0, separator));
+    }
+
+    /**
+     * Исключает плейсхолдеры из кэширования.
+     * Можно указать полный токен без знаков процента ({@code vault_eco_balance})
+     * или только идентификатор расширения ({@code vault}).
+     * @param placeholders токены или идентификаторы.
+     * @return текущий экземпляр кэша.
+     */
+    public PlaceholderApiCache addBypass(String... placeholders) {
+        for (String placeholder : placeholders) {
+            bypass.add(placeholder.replace("%", ""));
+        }
+        return this;
+    }
+
+    public PlaceholderApiCache removeBypass(String... placeholders) {
+        for (String placeholder : placeholders) {
+            bypass.remove(placeholder.replace("%", ""));
+        }
+        return this;
+    }
+
+    /**
+     * Устанавливает время жизни записи.
+     * @param ttl время жизни.
+     * @return текущий экземпляр кэша.
+     */
+    public PlaceholderApiCache setTtl(Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+        return this;
+    }
+
+    /**
+     * Включает или выключает сброс кэша при смене тика сервера.
+     * @param tickScoped true, если записи должны жить не дольше одного тика.
+     * @return текущий экземпляр кэша.
+     */
+    public PlaceholderApiCache setTickScoped(boolean tickScoped) {
+        this.tickScoped = tickScoped;
+        return this;
+    }
+
+    public PlaceholderApiCache setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) invalidateAll();
+        return this;
+    }
+
+    public PlaceholderApiCache setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    /**
+     * Удаляет все записи игрока.
+     * @param uuid UUID игрока.
+     */
+    public void invalidate(UUID uuid) {
+        Map<String, Entry> removed = entries.remove(uuid);
+        if (removed != null) size.addAndGet(-removed.size());
+    }
+
+    /**
+     * Полностью очищает кэш.
+     */
+    public void invalidateAll() {
+        entries = new ConcurrentHashMap<>();
+        size.set(0);
+    }
+
+    private record Entry(String value, long expiresAt) {
+    }
+}
@@ -0,0 +1,23 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.message;
+
+import org.bukkit.entity.Player;
+
+import java.util.List;
+
+/**
+ * Ленивый источник значений плейсхолдера.
+ * Вызывается только тогда, когда ключ встречается в рендеримом шаблоне.
+ */
+@FunctionalInterface
+public interface PlaceholderProvider {
+    /**
+     * @param player игрок, для которого рендерится сообщение, может быть null.
+     * @param scope область видимости, в которой идёт поиск.
+     * @return значения плейсхолдера.
+     */
+    List<String> provide(Player player, PlaceholderScope scope);
+}
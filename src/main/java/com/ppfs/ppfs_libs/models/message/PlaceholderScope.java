@@ -0,0 +1,143 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.message;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Область видимости плейсхолдеров.
+ * Области образуют цепочку global → plugin → menu → slot → player,
+ * значение ищется от текущей области к корню, без копирования и слияния карт.
+ * Сама цепочка неизменяема: дочерняя область создаётся под рендер и просто выбрасывается после него.
+ */
+public final class PlaceholderScope {
+    private static final PlaceholderScope global = new PlaceholderScope(null, new Placeholders());
+    private static final Map<String, PlaceholderScope> plugins = new ConcurrentHashMap<>();
+
+    private final PlaceholderScope parent;
+    private final Placeholders placeholders;
+
+    private PlaceholderScope(PlaceholderScope parent, Placeholders placeholders) {
+        this.parent = parent;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Возвращает корневую область, общую для всех плагинов.
+     * @return глобальная область.
+     */
+    public static PlaceholderScope global() {
+        return global;
+    }
+
+    /**
+     * Возвращает область плагина, дочернюю к глобальной.
+     * @param plugin плагин.
+     * @return область плагина.
+     */
+    public static PlaceholderScope plugin(Plugin plugin) {
+        if (plugin == null) return global;
+        return plugins.computeIfAbsent(plugin.getName(), name -> global.child(new Placeholders()));
+    }
+
+    /**
+     * Создаёт дочернюю область с отдельным набором плейсхолдеров.
+     * @param placeholders плейсхолдеры новой области.
+     * @return дочерняя область.
+     */
+    public PlaceholderScope child(Placeholders placeholders) {
+        return new PlaceholderScope(this, placeholders);
+    }
+
+    /**
+     * Ищет значения ключа, начиная с текущей области и поднимаясь к корню.
+     * @param key ключ плейсхолдера.
+     * @return значения или null, если ключ нигде не задан.
+     */
+    public List<String> get(String key) {
+        for (PlaceholderScope scope = this; scope != null; scope = scope.parent) {
+            List<String> values = scope.placeholders.get(key);
+            if (values != null) return values;
+        }
+        return null;
+    }
+
+    /**
+     * Ищет значения ключа с учётом ленивых плейсхолдеров.
+     * Провайдер вызывается только если ключ не найден среди обычных значений более близких областей.
+     * @param key ключ плейсхолдера.
+     * @param player игрок, для которого идёт рендер, может быть null.
+     * @return значения или null, если ключ нигде не задан.
+     */
+    public List<String> get(String key, Player player) {
+        for (PlaceholderScope scope = this; scope != null; scope = scope.parent) {
+            List<String> values = scope.placeholders.get(key, player, this);
+            if (values != null) return values;
+        }
+        return null;
+    }
+
+    /**
+     * Проверяет, есть ли в цепочке ленивые плейсхолдеры.
+     * @return true, если хотя бы одна область содержит провайдер.
+     */
+    public boolean hasProviders() {
+        for (PlaceholderScope scope = this; scope != null; scope = scope.parent) {
+            if (scope.placeholders.hasProviders()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Проверяет, состоят ли две цепочки из одних и тех же наборов плейсхолдеров.
+     * Обёртки областей, созданные на время рендера через {@link #child(Placeholders)},
+     * считаются одинаковыми, если оборачивают те же наборы с теми же родителями.
+     * Пустые наборы ничего не меняют при поиске и пропускаются.
+     * @param other другая область, может быть null.
+     * @return true, если цепочки совпадают.
+     */
+    public boolean sameChain(PlaceholderScope other) {
+        PlaceholderScope a = skipEmpty(this);
+        PlaceholderScope b = skipEmpty(other);
+        while (a != null && b != null) {
+            if (a == b) return true;
+            if (a.placeholders != b.placeholders) return false;
+            a = skipEmpty(a.parent);
+            b = skipEmpty(b.parent);
+        }
+        return a == b;
+    }
+
+    private static PlaceholderScope skipEmpty(PlaceholderScope scope) {
+        while (scope != null && scope.placeholders.isEmpty()) scope = scope.parent;
+        return scope;
+    }
+
+    /**
+     * Возвращает суммарную версию плейсхолдеров цепочки.
+     * Значение меняется при любом изменении плейсхолдеров этой области или её родителей.
+     * @return версия цепочки.
+     */
+    public long getVersion() {
+        long version = 0;
+        for (PlaceholderScope scope = this; scope != null; scope = scope.parent) {
+            version += scope.placeholders.getVersion();
+        }
+        return version;
+    }
+
+    public PlaceholderScope getParent() {
+        return parent;
+    }
+
+    public Placeholders getPlaceholders() {
+        return placeholders;
+    }
+}
@@ -4,47 +4,446 @@
 
 package com.ppfs.ppfs_libs.models.message;
 
+import org.bukkit.entity.Player;
+
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 
 public class Placeholders {
+    private static final UUID NO_PLAYER = new UUID(0, 0);
+
     private final Map<String, List<String>> placeholders = new HashMap<>();
+    private final Map<String, ProvidedValue> providers = new ConcurrentHashMap<>();
+    private transient volatile KeyTrie trie;
+    private transient volatile int version;
+    private int maxLines = Integer.MAX_VALUE;
 
     public Placeholders add(String key, String... values) {
         if (key == null || values == null) throw new RuntimeException("key or value is null " + key + " " + values);
         placeholders.put(key, List.of(values));
+        providers.remove(key);
+        trie = null;
+        version++;
         return this;
     }
 
     public Placeholders add(String key, List<String> values) {
         if (key == null || values == null) throw new RuntimeException("key or values are null " + key + " " + values);
         placeholders.put(key, new ArrayList<>(values));
+        providers.remove(key);
+        trie = null;
+        version++;
         return this;
     }
 
     public Placeholders add(Placeholders placeholders) {
         this.placeholders.putAll(placeholders.placeholders);
+        this.providers.putAll(placeholders.providers);
+        trie = null;
+        version++;
         return this;
     }
 
-    public List<String> apply(String message) {
-        if (message == null || message.isEmpty()) return Collections.emptyList();
+    /**
+     * Регистрирует ленивый плейсхолдер с одним значением.
+     * Значение вычисляется только при рендере шаблона, содержащего ключ,
+     * и запоминается для каждой пары игрок + область видимости на время ttl.
+     * Области сравниваются по цепочке наборов плейсхолдеров, см. {@link PlaceholderScope#sameChain(PlaceholderScope)}.
+     * @param key ключ плейсхолдера.
+     * @param ttl время жизни вычисленного значения.
+     * @param provider функция вычисления значения.
+     * @return обновленный экземпляр Placeholders.
+     */
+    public Placeholders provide(String key, Duration ttl, BiFunction<Player, PlaceholderScope, String> provider) {
+        if (provider == null) throw new RuntimeException("provider is null " + key);
+        return provideList(key, ttl, (player, scope) -> List.of(provider.apply(player, scope)));
+    }
+
+    /**
+     * Регистрирует ленивый плейсхолдер с несколькими значениями.
+     * @param key ключ плейсхолдера.
+     * @param ttl время жизни вычисленных значений.
+     * @param provider функция вычисления значений.
+     * @return обновленный экземпляр Placeholders.
+     */
+    public Placeholders provideList(String key, Duration ttl, PlaceholderProvider provider) {
+        if (key == null || ttl == null || provider == null) throw new RuntimeException("key, ttl or provider is null " + key);
+        providers.put(key, new ProvidedValue(provider, ttl.toNanos()));
+        placeholders.remove(key);
+        trie = null;
+        version++;
+        return this;
+    }
+
+    public List<String> get(String key) {
+        return placeholders.get(key);
+    }
+
+    /**
+     * Возвращает значения ключа, вычисляя ленивый плейсхолдер при необходимости.
+     * @param key ключ плейсхолдера.
+     * @param player игрок, может быть null.
+     * @param scope область видимости, в которой идёт поиск.
+     * @return значения или null, если ключ не задан.
+     */
+    public List<String> get(String key, Player player, PlaceholderScope scope) {
+        List<String> values = placeholders.get(key);
+        if (values != null || providers.isEmpty()) return values;
+
+        ProvidedValue provided = providers.get(key);
+        return provided != null ? provided.get(player, scope) : null;
+    }
+
+    /**
+     * Проверяет, что набор не задаёт ни одного значения и ни одного провайдера.
+     * @return true, если набор пуст.
+     */
+    public boolean isEmpty() {
+        return placeholders.isEmpty() && providers.isEmpty();
+    }
 
+    /**
+     * Проверяет, есть ли ленивые плейсхолдеры, зависящие от игрока.
+     * @return true, если зарегистрирован хотя бы один провайдер.
+     */
+    public boolean hasProviders() {
+        return !providers.isEmpty();
+    }
+
+    /**
+     * Устанавливает максимальное количество строк, получаемых при развёртке
+     * плейсхолдеров с несколькими значениями.
+     * @param maxLines максимальное количество строк.
+     * @return обновленный экземпляр Placeholders.
+     */
+    public Placeholders setMaxLines(int maxLines) {
+        if (maxLines < 1) throw new IllegalArgumentException("maxLines must be positive: " + maxLines);
+        this.maxLines = maxLines;
+        version++;
+        return this;
+    }
+
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Возвращает номер версии, который меняется при каждом изменении набора плейсхолдеров.
+     * @return номер версии.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Сравнивает значения и провайдеры двух наборов плейсхолдеров.
+     * @param other другой набор.
+     * @return true, если наборы задают одинаковые значения.
+     */
+    public boolean sameValues(Placeholders other) {
+        if (other == this) return true;
+        return other != null && placeholders.equals(other.placeholders) && providers.equals(other.providers);
+    }
+
+    /**
+     * Подставляет значения плейсхолдеров вида {@code <key>} в строку.
+     * Строка просматривается один раз, ключи ищутся по префиксному дереву,
+     * которое перестраивается только после изменения набора ключей.
+     * Подставленные значения повторно не сканируются.
+     * Для плейсхолдеров с несколькими значениями возвращаются все комбинации, но не больше {@link #getMaxLines()}.
+     * Ленивые плейсхолдеры ({@link #provide}) здесь не подставляются: им нужны игрок и область видимости,
+     * поэтому их разрешает только {@link MessageTemplate}.
+     * @param message исходная строка.
+     * @return список строк с подставленными значениями.
+     */
+    public List<String> apply(String message) {
         List<String> results = new ArrayList<>();
-        results.add(message);
-
-        for (Map.Entry<String, List<String>> entry : placeholders.entrySet()) {
-            List<String> newResults = new ArrayList<>();
-            for (String result : results) {
-                if (result.contains("<" + entry.getKey() + ">")) {
-                    for (String replacement : entry.getValue()) {
-                        newResults.add(result.replace("<" + entry.getKey() + ">", replacement));
-                    }
-                } else {
-                    newResults.add(result);
+        expand(message).forEachRemaining(results::add);
+        return results;
+    }
+
+    /**
+     * Лениво разворачивает плейсхолдеры в строке.
+     * Комбинации значений вычисляются по одной при обходе, поэтому память
+     * не зависит от размера декартова произведения.
+     * Как и {@link #apply(String)}, подставляет только обычные плейсхолдеры, без ленивых.
+     * @param message исходная строка.
+     * @return итератор строк с подставленными значениями.
+     */
+    public Expansion expand(String message) {
+        return new Expansion(message, getTrie(), maxLines);
+    }
+
+    private static String substitute(String message, KeyTrie trie, int[] chosen, StringBuilder builder) {
+        int lastEnd = 0;
+        for (int i = message.indexOf('<'); i >= 0; i = message.indexOf('<', i + 1)) {
+            int key = trie.match(message, i + 1);
+            if (key < 0) continue;
+            builder.append(message, lastEnd, i).append(trie.values[key].get(chosen[key]));
+            lastEnd = i + trie.keys[key].length() + 2;
+            i = lastEnd - 1;
+        }
+        return builder.append(message, lastEnd, message.length()).toString();
+    }
+
+    private static boolean contains(int[] array, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (array[i] == value) return true;
+        }
+        return false;
+    }
+
+    private KeyTrie getTrie() {
+        KeyTrie current = trie;
+        if (current == null) {
+            current = new KeyTrie(placeholders);
+            trie = current;
+        }
+        return current;
+    }
+
+    /**
+     * Провайдер вместе с запомненными значениями по игрокам и областям видимости.
+     */
+    private static final class ProvidedValue {
+        private static final int PURGE_THRESHOLD = 256;
+        private static final int MAX_CONTEXTS = 8;
+
+        private final PlaceholderProvider provider;
+        private final long ttlNanos;
+        private final Map<UUID, Memo[]> memos = new ConcurrentHashMap<>();
+
+        private ProvidedValue(PlaceholderProvider provider, long ttlNanos) {
+            this.provider = provider;
+            this.ttlNanos = ttlNanos;
+        }
+
+        private List<String> get(Player player, PlaceholderScope scope) {
+            UUID uuid = player != null ? player.getUniqueId() : NO_PLAYER;
+            long now = System.nanoTime();
+
+            Memo[] contexts = memos.get(uuid);
+            if (contexts != null) {
+                for (Memo memo : contexts) {
+                    if (now < memo.expiresAt() && sameContext(memo.scope(), scope)) return memo.values();
                 }
             }
-            results = newResults;
+
+            List<String> values = provider.provide(player, scope);
+            if (values == null) values = Collections.emptyList();
+            if (ttlNanos > 0) {
+                if (memos.size() >= PURGE_THRESHOLD) {
+                    memos.values().removeIf(old -> isExpired(old, now));
+                }
+                Memo memo = new Memo(values, scope, now + ttlNanos);
+                memos.compute(uuid, (key, old) -> withMemo(old, memo, now));
+            }
+            return values;
+        }
+
+        private static Memo[] withMemo(Memo[] old, Memo memo, long now) {
+            List<Memo> kept = new ArrayList<>(MAX_CONTEXTS);
+            kept.add(memo);
+            if (old != null) {
+                for (Memo other : old) {
+                    if (kept.size() >= MAX_CONTEXTS) break;
+                    if (now < other.expiresAt() && !sameContext(other.scope(), memo.scope())) kept.add(other);
+                }
+            }
+            return kept.toArray(new Memo[0]);
+        }
+
+        private static boolean isExpired(Memo[] contexts, long now) {
+            for (Memo memo : contexts) {
+                if (now < memo.expiresAt()) return false;
+            }
+            return true;
+        }
+
+        private static boolean sameContext(PlaceholderScope a, PlaceholderScope b) {
+            return a == null ? b == null : a.sameChain(b);
+        }
+    }
+
+    private record Memo(List<String> values, PlaceholderScope scope, long expiresAt) {
+    }
+
+    /**
+     * Ленивая развёртка строки с плейсхолдерами.
+     * Хранит только индексы текущей комбинации и один буфер для сборки строки.
+     */
+    public static final class Expansion implements Iterator<String> {
+        private final String message;
+        private final KeyTrie trie;
+        private final int maxLines;
+
+        private int[] multiKeys;
+        private int multiCount;
+        private int[] chosen;
+        private StringBuilder builder;
+
+        private boolean hasNext;
+        private boolean truncated;
+        private int produced;
+
+        private Expansion(String message, KeyTrie trie, int maxLines) {
+            this.message = message;
+            this.trie = trie;
+            this.maxLines = maxLines;
+            this.hasNext = prepare();
+        }
+
+        private boolean prepare() {
+            if (message == null || message.isEmpty()) return false;
+            if (trie.isEmpty() || message.indexOf('<') < 0) return true;
+
+            for (int i = message.indexOf('<'); i >= 0; i = message.indexOf('<', i + 1)) {
+                int key = trie.match(message, i + 1);
+                if (key < 0) continue;
+                int size = trie.values[key].size();
+                if (size == 0) return false;
+                if (chosen == null) chosen = new int[trie.keys.length];
+                if (size == 1) continue;
+                if (multiKeys == null) multiKeys = new int[trie.keys.length];
+                if (!contains(multiKeys, multiCount, key)) multiKeys[multiCount++] = key;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext) throw new NoSuchElementException();
+
+            String result;
+            if (chosen == null) {
+                result = message;
+            } else {
+                if (builder == null) builder = new StringBuilder(message.length() + 16);
+                builder.setLength(0);
+                result = substitute(message, trie, chosen, builder);
+            }
+            produced++;
+            hasNext = advance();
+            return result;
+        }
+
+        private boolean advance() {
+            int position = multiCount - 1;
+            while (position >= 0) {
+                int key = multiKeys[position];
+                if (++chosen[key] < trie.values[key].size()) break;
+                chosen[key] = 0;
+                position--;
+            }
+            if (position < 0) return false;
+            if (produced >= maxLines) {
+                truncated = true;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Проверяет, была ли развёртка обрезана ограничением на количество строк.
+         * @return true, если часть комбинаций была отброшена.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
+
+    /**
+     * Префиксное дерево ключей плейсхолдеров.
+     * Узлы хранятся в плоских массивах, поиск не создаёт объектов.
+     */
+    private static final class KeyTrie {
+        private final String[] keys;
+        private final List<?>[] values;
+
+        private char[] labels = new char[16];
+        private int[] firstChild = new int[16];
+        private int[] nextSibling = new int[16];
+        private int[] terminal = new int[16];
+        private int nodes = 1;
+
+        private KeyTrie(Map<String, List<String>> placeholders) {
+            keys = new String[placeholders.size()];
+            values = new List<?>[placeholders.size()];
+            firstChild[0] = -1;
+            nextSibling[0] = -1;
+            terminal[0] = -1;
+
+            int index = 0;
+            for (Map.Entry<String, List<String>> entry : placeholders.entrySet()) {
+                keys[index] = entry.getKey();
+                values[index] = entry.getValue();
+                insert(entry.getKey(), index++);
+            }
+        }
+
+        private boolean isEmpty() {
+            return keys.length == 0;
+        }
+
+        /**
+         * Ищет ключ, начинающийся с позиции start и закрытый символом '>'.
+         * @return индекс ключа или -1.
+         */
+        private int match(String message, int start) {
+            int node = 0;
+            for (int i = start; i < message.length(); i++) {
+                node = child(node, message.charAt(i));
+                if (node < 0) return -1;
+                if (terminal[node] >= 0 && i + 1 < message.length() && message.charAt(i + 1) == '>') {
+                    return terminal[node];
+                }
+            }
+            return -1;
+        }
+
+        private int child(int node, char c) {
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                if (labels[child] == c) return child;
+            }
+            return -1;
+        }
+
+        private void insert(String key, int index) {
+            if (key.isEmpty()) return;
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                int next = child(node, c);
+                if (next < 0) {
+                    next = newNode(c);
+                    nextSibling[next] = firstChild[node];
+                    firstChild[node] = next;
+                }
+                node = next;
+            }
+            terminal[node] = index;
+        }
+
+        private int newNode(char c) {
+            if (nodes == labels.length) {
+                int size = nodes * 2;
+                labels = Arrays.copyOf(labels, size);
+                firstChild = Arrays.copyOf(firstChild, size);
+                nextSibling = Arrays.copyOf(nextSibling, size);
+                terminal = Arrays.copyOf(terminal, size);
+            }
+            labels[nodes] = c;
+            firstChild[nodes] = -1;
+            nextSibling[nodes] = -1;
+            terminal[nodes] = -1;
+            return nodes++;
         }
-        return results;
     }
 }
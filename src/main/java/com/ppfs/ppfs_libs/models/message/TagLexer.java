@@ -0,0 +1,177 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.models.message;
+
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.format.TextColor;
+import net.kyori.adventure.text.format.TextDecoration;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Посимвольный разбор строки на текст и теги вида {@code <name>} и {@code </name>}.
+ * Не использует регулярные выражения и не копирует подстроки:
+ * получатель работает с индексами исходной строки.
+ */
+final class TagLexer {
+    static final String GRADIENT_PREFIX = "gradient:";
+
+    private static final Map<String, TextColor> NAMED_COLORS = new HashMap<>();
+    private static final Map<String, TextColor> HEX_COLORS = new ConcurrentHashMap<>();
+
+    static {
+        NAMED_COLORS.put("red", NamedTextColor.RED);
+        NAMED_COLORS.put("green", NamedTextColor.GREEN);
+        NAMED_COLORS.put("blue", NamedTextColor.BLUE);
+        NAMED_COLORS.put("yellow", NamedTextColor.YELLOW);
+        NAMED_COLORS.put("aqua", NamedTextColor.AQUA);
+        NAMED_COLORS.put("gold", NamedTextColor.GOLD);
+        NAMED_COLORS.put("gray", NamedTextColor.GRAY);
+        NAMED_COLORS.put("dark_red", NamedTextColor.DARK_RED);
+        NAMED_COLORS.put("dark_green", NamedTextColor.DARK_GREEN);
+        NAMED_COLORS.put("dark_blue", NamedTextColor.DARK_BLUE);
+        NAMED_COLORS.put("dark_aqua", NamedTextColor.DARK_AQUA);
+        NAMED_COLORS.put("dark_gray", NamedTextColor.DARK_GRAY);
+        NAMED_COLORS.put("dark_purple", NamedTextColor.DARK_PURPLE);
+        NAMED_COLORS.put("light_purple", NamedTextColor.LIGHT_PURPLE);
+        NAMED_COLORS.put("white", NamedTextColor.WHITE);
+        NAMED_COLORS.put("black", NamedTextColor.BLACK);
+    }
+
+    private TagLexer() {
+    }
+
+    interface Visitor {
+        /**
+         * Обычный текст в диапазоне [start, end).
+         */
+        void text(String source, int start, int end);
+
+        /**
+         * Тег в диапазоне [start, end), имя тега в диапазоне [nameStart, nameEnd).
+         */
+        void tag(String source, int start, int end, boolean closing, int nameStart, int nameEnd);
+    }
+
+    /**
+     * Разбирает строку, вызывая visitor для каждого фрагмента текста и каждого тега.
+     * Тегом считается {@code <...>} без символов '<' и '>' внутри.
+     */
+    static void tokenize(String source, Visitor visitor) {
+        int length = source.length();
+        int textStart = 0;
+        int i = source.indexOf('<');
+
+        while (i >= 0) {
+            int end = i + 1;
+            while (end < length) {
+                char c = source.charAt(end);
+                if (c == '>' || c == '<') break;
+                end++;
+            }
+            if (end >= length) break;
+            if (source.charAt(end) == '<' || end == i + 1) {
+                i = source.charAt(end) == '<' ? end : source.indexOf('<', end);
+                continue;
+            }
+
+            boolean closing = source.charAt(i + 1) == '/' && end > i + 2;
+            if (i > textStart) visitor.text(source, textStart, i);
+            visitor.tag(source, i, end + 1, closing, closing ? i + 2 : i + 1, end);
+
+            textStart = end + 1;
+            i = source.indexOf('<', textStart);
+        }
+        if (textStart < length) visitor.text(source, textStart, length);
+    }
+
+    /**
+     * Проверяет, состоит ли имя только из символов [a-zA-Z_#0-9].
+     */
+    static boolean isTagName(String source, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '#')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Возвращает цвет по имени ({@code red}) или hex-записи ({@code #FF5555}).
+     */
+    static TextColor color(String name) {
+        if (name.isEmpty()) return null;
+        if (name.charAt(0) == '#') return hexColor(name);
+
+        TextColor color = NAMED_COLORS.get(name);
+        if (color == null) {
+            color = NAMED_COLORS.get(name.toLowerCase(Locale.ROOT));
+        }
+        return color;
+    }
+
+    static TextDecoration decoration(String name) {
+        return switch (name) {
+            case "bold" -> TextDecoration.BOLD;
+            case "italic" -> TextDecoration.ITALIC;
+            case "underline" -> TextDecoration.UNDERLINED;
+            case "strikethrough" -> TextDecoration.STRIKETHROUGH;
+            case "obfuscated" -> TextDecoration.OBFUSCATED;
+            default -> null;
+        };
+    }
+
+    /**
+     * Разбирает цвета градиента из тега {@code gradient:#a:#b[:...]}.
+     * @return массив цветов или null, если тег некорректен.
+     */
+    static TextColor[] gradient(String name) {
+        if (!name.startsWith(GRADIENT_PREFIX)) return null;
+        String[] parts = name.substring(GRADIENT_PREFIX.length()).split(":");
+        if (parts.length < 2) return null;
+
+        TextColor[] colors = new TextColor[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            colors[i] = color(parts[i]);
+            if (colors[i] == null) return null;
+        }
+        return colors;
+    }
+
+    /**
+     * Возвращает цвет градиента в позиции index из length символов.
+     */
+    static TextColor interpolate(TextColor[] colors, int index, int length) {
+        if (length <= 1) return colors[0];
+        float position = (float) index / (length - 1) * (colors.length - 1);
+        int from = Math.min((int) position, colors.length - 2);
+        float t = position - from;
+
+        TextColor a = colors[from];
+        TextColor b = colors[from + 1];
+        int red = Math.round(a.red() + (b.red() - a.red()) * t);
+        int green = Math.round(a.green() + (b.green() - a.green()) * t);
+        int blue = Math.round(a.blue() + (b.blue() - a.blue()) * t);
+        return TextColor.color(red, green, blue);
+    }
+
+    private static TextColor hexColor(String name) {
+        if (name.length() != 7) return null;
+        TextColor cached = HEX_COLORS.get(name);
+        if (cached != null) return cached;
+
+        for (int i = 1; i < 7; i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) return null;
+        }
+        TextColor color = TextColor.color(Integer.parseInt(name, 1, 7, 16));
+        HEX_COLORS.put(name, color);
+        return color;
+    }
+}
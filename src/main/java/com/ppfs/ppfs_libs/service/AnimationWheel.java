@@ -0,0 +1,117 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.service;
+
+import com.ppfs.ppfs_libs.PPFS_Libs;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Общий таймер анимаций на основе хешированного колеса.
+ * Все анимации сервера обслуживаются одной задачей, которая раз в тик
+ * просматривает только одну ячейку колеса. Задача запускается при первой анимации
+ * и останавливается, когда колесо опустело.
+ * Все методы должны вызываться из основного потока.
+ */
+public final class AnimationWheel {
+    private static final Logger log = LoggerFactory.getLogger(AnimationWheel.class);
+    private static final int WHEEL_SIZE = 256;
+    private static final AnimationWheel instance = new AnimationWheel();
+
+    @SuppressWarnings("unchecked")
+    private final List<Entry>[] buckets = new List[WHEEL_SIZE];
+    private long tick;
+    private int size;
+    private BukkitTask task;
+
+    private AnimationWheel() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+    }
+
+    public static AnimationWheel getInstance() {
+        return instance;
+    }
+
+    /**
+     * Анимация, которую обслуживает колесо.
+     */
+    public interface Animation {
+        /**
+         * Переключает анимацию на следующий кадр.
+         * @return интервал до следующего кадра в тиках или 0, если анимацию нужно снять с колеса.
+         */
+        int frame();
+    }
+
+    /**
+     * Ставит анимацию на колесо.
+     * @param animation анимация.
+     * @param delay задержка до первого кадра в тиках.
+     */
+    public void schedule(Animation animation, int delay) {
+        long deadline = tick + Math.max(1, delay);
+        buckets[(int) (deadline & (WHEEL_SIZE - 1))].add(new Entry(animation, deadline));
+        size++;
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(PPFS_Libs.getInstance(), this::tick, 1, 1);
+        }
+    }
+
+    /**
+     * Возвращает количество анимаций на колесе.
+     * @return количество анимаций.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void tick() {
+        tick++;
+        List<Entry> bucket = buckets[(int) (tick & (WHEEL_SIZE - 1))];
+        if (!bucket.isEmpty()) {
+            List<Entry> due = null;
+            for (int i = bucket.size() - 1; i >= 0; i--) {
+                Entry entry = bucket.get(i);
+                if (entry.deadline() > tick) continue;
+                if (due == null) due = new ArrayList<>();
+                due.add(entry);
+                bucket.set(i, bucket.get(bucket.size() - 1));
+                bucket.remove(bucket.size() - 1);
+            }
+            if (due != null) {
+                size -= due.size();
+                for (Entry entry : due) {
+                    fire(entry.animation());
+                }
+            }
+        }
+
+        if (size == 0 && task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    private void fire(Animation animation) {
+        int interval;
+        try {
+            interval = animation.frame();
+        } catch (Exception e) {
+            log.error("Ошибка в анимации, она снята с таймера", e);
+            return;
+        }
+        if (interval > 0) schedule(animation, interval);
+    }
+
+    private record Entry(Animation animation, long deadline) {
+    }
+}
@@ -0,0 +1,147 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.service;
+
+import com.ppfs.ppfs_libs.PPFS_Libs;
+import com.ppfs.ppfs_libs.models.menu.Menu;
+import com.ppfs.ppfs_libs.models.menu.MenuMutation;
+import com.ppfs.ppfs_libs.models.menu.slots.actions.OnClickAsync;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.ClickType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Исполнитель асинхронных обработчиков кликов.
+ * Обработчик выполняется в отдельном пуле потоков, а полученное изменение меню
+ * применяется в основном потоке, если меню ещё открыто. Пока клик по слоту обрабатывается,
+ * повторные клики по тому же слоту игнорируются.
+ */
+public final class AsyncClickService {
+    private static final Logger log = LoggerFactory.getLogger(AsyncClickService.class);
+    private static final AsyncClickService instance = new AsyncClickService();
+
+    private final Set<SlotKey> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile ExecutorService executor;
+
+    private AsyncClickService() {
+    }
+
+    public static AsyncClickService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Запускает асинхронный обработчик клика по слоту.
+     * Должен вызываться из основного потока.
+     * @param menu меню.
+     * @param position позиция слота.
+     * @param player игрок.
+     * @param click тип клика.
+     * @param handler обработчик.
+     * @return future, завершающийся после применения изменения,
+     * или null, если клик по этому слоту уже обрабатывается.
+     */
+    public CompletableFuture<MenuMutation> submit(Menu menu, int position, Player player, ClickType click, OnClickAsync handler) {
+        SlotKey key = new SlotKey(menu, position);
+        if (!inFlight.add(key)) return null;
+
+        CompletableFuture<MenuMutation> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> handler.run(player, click), getExecutor());
+        } catch (RuntimeException e) {
+            inFlight.remove(key);
+            throw e;
+        }
+        return future.whenCompleteAsync((mutation, error) -> {
+            inFlight.remove(key);
+            if (error != null) {
+                log.error("Ошибка в асинхронном обработчике клика меню {} (слот {})", menu.getId(), position, error);
+                return;
+            }
+            if (mutation == null) return;
+            if (!isActive(menu)) {
+                log.debug("Меню {} закрыто, изменение после клика по слоту {} пропущено", menu.getId(), position);
+                return;
+            }
+            try {
+                mutation.apply(menu);
+            } catch (Exception e) {
+                log.error("Ошибка при применении изменения меню {} (слот {})", menu.getId(), position, e);
+            }
+        }, Bukkit.getScheduler().getMainThreadExecutor(PPFS_Libs.getInstance()));
+    }
+
+    /**
+     * Проверяет, что меню ещё открыто и, если оно открыто через сервис, зарегистрировано в нём.
+     */
+    private static boolean isActive(Menu menu) {
+        if (menu.getInventory().getViewers().isEmpty()) return false;
+        MenuService service = menu.getMenuService();
+        return service == null || service.hasActiveMenu(menu);
+    }
+
+    /**
+     * Проверяет, обрабатывается ли сейчас клик по слоту.
+     * @param menu меню.
+     * @param position позиция слота.
+     * @return true, если клик ещё обрабатывается.
+     */
+    public boolean isInFlight(Menu menu, int position) {
+        return inFlight.contains(new SlotKey(menu, position));
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Останавливает пул потоков, дожидаясь завершения текущих обработчиков.
+     */
+    public void shutdown() {
+        ExecutorService current = executor;
+        executor = null;
+        if (current == null) return;
+        current.shutdown();
+        try {
+            if (!current.awaitTermination(5, TimeUnit.SECONDS)) current.shutdownNow();
+        } catch (InterruptedException e) {
+            current.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        inFlight.clear();
+    }
+
+    private ExecutorService getExecutor() {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (this) {
+                current = executor;
+                if (current == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    current = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+                        Thread thread = new Thread(runnable, "PPFS_Libs-Click-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private record SlotKey(Menu menu, int position) {
+    }
+}
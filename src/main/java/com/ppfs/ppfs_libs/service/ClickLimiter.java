@@ -0,0 +1,188 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.service;
+
+import com.ppfs.ppfs_libs.PPFS_Libs;
+import com.ppfs.ppfs_libs.models.menu.ClickLimit;
+import com.ppfs.ppfs_libs.models.menu.Menu;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryClickEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Ограничитель частоты кликов в меню.
+ * Для каждого игрока хранятся отдельные корзины токенов на меню и на слот меню.
+ * Клики сверх лимита отбрасываются или объединяются, в зависимости от {@link ClickLimit.Mode}.
+ * Должен использоваться из основного потока.
+ */
+public final class ClickLimiter {
+    private static final ClickLimiter instance = new ClickLimiter();
+
+    private final Map<UUID, Map<Object, Bucket>> buckets = new ConcurrentHashMap<>();
+    private final Map<UUID, Counters> counters = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    private ClickLimiter() {
+    }
+
+    public static ClickLimiter getInstance() {
+        return instance;
+    }
+
+    /**
+     * Проверяет клик по лимитам меню и слота.
+     * Если клик превышает лимит в режиме COALESCE, он откладывается: когда появится токен,
+     * handler будет вызван с описанием последнего отложенного клика. Само событие не сохраняется,
+     * так как после его обработки сервером оно уже не влияет на инвентарь.
+     * @param event событие клика.
+     * @param menu меню.
+     * @param position позиция слота или -1.
+     * @param menuLimit лимит меню, может быть null.
+     * @param slotLimit лимит слота, может быть null.
+     * @param handler обработка отложенного клика.
+     * @return true, если клик нужно обработать сейчас.
+     */
+    public boolean tryClick(InventoryClickEvent event, Menu menu, int position,
+                            ClickLimit menuLimit, ClickLimit slotLimit, Consumer<PendingClick> handler) {
+        if (menuLimit == null && slotLimit == null) return true;
+        PendingClick click = new PendingClick((Player) event.getWhoClicked(), position, event.getClick());
+        return tryClick(click, menu, menuLimit, slotLimit, handler);
+    }
+
+    private boolean tryClick(PendingClick click, Menu menu,
+                             ClickLimit menuLimit, ClickLimit slotLimit, Consumer<PendingClick> handler) {
+        UUID uuid = click.player().getUniqueId();
+        int position = click.slot();
+        Map<Object, Bucket> playerBuckets = buckets.computeIfAbsent(uuid, key -> new ConcurrentHashMap<>());
+        long now = System.nanoTime();
+
+        Bucket menuBucket = menuLimit != null ? playerBuckets.computeIfAbsent(menu, key -> new Bucket(menuLimit, now)) : null;
+        Bucket slotBucket = slotLimit != null ? playerBuckets.computeIfAbsent(new SlotKey(menu, position), key -> new Bucket(slotLimit, now)) : null;
+
+        long menuWait = menuBucket != null ? menuBucket.waitNanos(menuLimit, now) : 0;
+        long slotWait = slotBucket != null ? slotBucket.waitNanos(slotLimit, now) : 0;
+        if (menuWait == 0 && slotWait == 0) {
+            if (menuBucket != null) menuBucket.take();
+            if (slotBucket != null) slotBucket.take();
+            return true;
+        }
+
+        Counters playerCounters = counters.computeIfAbsent(uuid, key -> new Counters());
+        boolean coalesce = (menuWait == 0 || menuLimit.mode() == ClickLimit.Mode.COALESCE)
+                && (slotWait == 0 || slotLimit.mode() == ClickLimit.Mode.COALESCE);
+        if (!coalesce) {
+            dropped.increment();
+            playerCounters.dropped.increment();
+            return false;
+        }
+
+        coalesced.increment();
+        playerCounters.coalesced.increment();
+        Bucket owner = slotWait >= menuWait ? slotBucket : menuBucket;
+        boolean scheduled = owner.pending != null;
+        owner.pending = click;
+        if (!scheduled) {
+            long ticks = Math.max(1, (Math.max(menuWait, slotWait) + 49_999_999) / 50_000_000);
+            Bukkit.getScheduler().runTaskLater(PPFS_Libs.getInstance(), () -> {
+                PendingClick pending = owner.pending;
+                owner.pending = null;
+                if (pending == null || pending.player().getOpenInventory().getTopInventory().getHolder() != menu) return;
+                if (tryClick(pending, menu, menuLimit, slotLimit, handler)) {
+                    handler.accept(pending);
+                }
+            }, ticks);
+        }
+        return false;
+    }
+
+    /**
+     * Удаляет корзины игрока для меню, например после его закрытия.
+     * @param uuid UUID игрока.
+     * @param menu меню.
+     */
+    public void reset(UUID uuid, Menu menu) {
+        Map<Object, Bucket> playerBuckets = buckets.get(uuid);
+        if (playerBuckets == null) return;
+        playerBuckets.keySet().removeIf(key -> key == menu || key instanceof SlotKey slotKey && slotKey.menu() == menu);
+        if (playerBuckets.isEmpty()) buckets.remove(uuid, playerBuckets);
+    }
+
+    /**
+     * Удаляет все корзины и счётчики игрока.
+     * @param uuid UUID игрока.
+     */
+    public void invalidate(UUID uuid) {
+        buckets.remove(uuid);
+        counters.remove(uuid);
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getDroppedCount(UUID uuid) {
+        Counters playerCounters = counters.get(uuid);
+        return playerCounters != null ? playerCounters.dropped.sum() : 0;
+    }
+
+    public long getCoalescedCount(UUID uuid) {
+        Counters playerCounters = counters.get(uuid);
+        return playerCounters != null ? playerCounters.coalesced.sum() : 0;
+    }
+
+    private record SlotKey(Menu menu, int position) {
+    }
+
+    /**
+     * Отложенный клик.
+     * @param player игрок.
+     * @param slot позиция слота.
+     * @param click тип клика.
+     */
+    public record PendingClick(Player player, int slot, ClickType click) {
+    }
+
+    private static final class Counters {
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long refilledAt;
+        private PendingClick pending;
+
+        private Bucket(ClickLimit limit, long now) {
+            this.tokens = limit.burst();
+            this.refilledAt = now;
+        }
+
+        /**
+         * Пополняет корзину и возвращает, сколько ждать до следующего токена.
+         */
+        private long waitNanos(ClickLimit limit, long now) {
+            tokens = Math.min(limit.burst(), tokens + (now - refilledAt) * limit.perSecond() / 1_000_000_000d);
+            refilledAt = now;
+            if (tokens >= 1) return 0;
+            return Math.max(1, (long) ((1 - tokens) / limit.perSecond() * 1_000_000_000d));
+        }
+
+        private void take() {
+            tokens -= 1;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.service;
+
+import com.google.common.collect.MapMaker;
+import com.ppfs.ppfs_libs.models.menu.Menu;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * Реестр активных меню.
+ * Членство определяется по ссылке, а не по equals, добавление, удаление и поиск выполняются за O(1).
+ * Меню индексируются по id, индекс зрителей ведёт {@link MenuService#getViewedMenu(UUID)}.
+ * Ссылки на меню слабые: меню, о котором все забыли, исчезает из реестра даже если путь закрытия не был вызван.
+ */
+public class MenuRegistry {
+    private final ConcurrentMap<Menu, Boolean> menus = new MapMaker().weakKeys().makeMap();
+    private final Map<String, ConcurrentMap<Menu, Boolean>> byId = new ConcurrentHashMap<>();
+
+    /**
+     * Добавляет меню в реестр.
+     * @param menu меню.
+     * @return true, если меню ещё не было в реестре.
+     */
+    public boolean add(Menu menu) {
+        if (menus.putIfAbsent(menu, Boolean.TRUE) != null) return false;
+        byId.computeIfAbsent(menu.getId(), id -> new MapMaker().weakKeys().makeMap()).put(menu, Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Удаляет меню из реестра.
+     * @param menu меню.
+     * @return true, если меню было в реестре.
+     */
+    public boolean remove(Menu menu) {
+        if (menus.remove(menu) == null) return false;
+        byId.computeIfPresent(menu.getId(), (id, set) -> {
+            set.remove(menu);
+            return set.isEmpty() ? null : set;
+        });
+        return true;
+    }
+
+    public boolean contains(Menu menu) {
+        return menus.containsKey(menu);
+    }
+
+    /**
+     * Возвращает все активные меню с указанным id.
+     * @param id идентификатор меню.
+     * @return список меню.
+     */
+    public List<Menu> getById(String id) {
+        Map<Menu, Boolean> set = byId.get(id);
+        return set == null ? List.of() : new ArrayList<>(set.keySet());
+    }
+
+    /**
+     * Удаляет меню без зрителей. Должен вызываться из основного потока.
+     * @return количество удалённых меню.
+     */
+    public int sweep() {
+        return sweep(menu -> false).size();
+    }
+
+    /**
+     * Удаляет меню без зрителей, кроме отмеченных skip.
+     * Должен вызываться из основного потока.
+     * @param skip меню, которые нужно оставить, даже если у них нет зрителей.
+     * @return удалённые меню.
+     */
+    public List<Menu> sweep(Predicate<Menu> skip) {
+        List<Menu> removed = new ArrayList<>();
+        for (Menu menu : new ArrayList<>(menus.keySet())) {
+            if (menu.getInventory().getViewers().isEmpty() && !skip.test(menu) && remove(menu)) removed.add(menu);
+        }
+        byId.values().removeIf(Map::isEmpty);
+        return removed;
+    }
+
+    public List<Menu> getMenus() {
+        return new ArrayList<>(menus.keySet());
+    }
+
+    public int size() {
+        return menus.size();
+    }
+
+    /**
+     * Возвращает количество активных меню по id.
+     * @return карта id → количество меню.
+     */
+    public Map<String, Integer> countsById() {
+        Map<String, Integer> counts = new HashMap<>();
+        byId.forEach((id, set) -> {
+            if (!set.isEmpty()) counts.put(id, set.size());
+        });
+        return counts;
+    }
+
+    public void clear() {
+        menus.clear();
+        byId.clear();
+    }
+}
@@ -4,40 +4,71 @@
 
 package com.ppfs.ppfs_libs.service;
 
+import com.google.common.collect.MapMaker;
 import com.ppfs.ppfs_libs.models.menu.Menu;
 import lombok.Getter;
 import org.bukkit.Bukkit;
+import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MenuService implements Serializable, Listener {
-    private final List<Menu> activeMenus;
+    private static final Logger log = LoggerFactory.getLogger(MenuService.class);
+    private static final long SWEEP_PERIOD = 20 * 30;
+
+    @Getter
+    private final transient MenuRegistry registry = new MenuRegistry();
     @Getter
     private final JavaPlugin plugin;
+    private transient BukkitTask sweeper;
+    private final transient Set<Menu> pendingOpens = ConcurrentHashMap.newKeySet();
+    private final transient Map<UUID, Menu> viewedMenus = new MapMaker().weakValues().makeMap();
+
+    private final transient Map<Menu, Player> dirtyMenus = new LinkedHashMap<>();
+    private transient boolean flushScheduled;
+    @Getter
+    private transient long tickBudgetNanos;
 
     public MenuService(JavaPlugin plugin) {
         this.plugin = plugin;
-        activeMenus = new ArrayList<>();
     }
 
 
     public void addActiveMenu(Menu menu) {
-        if (activeMenus.contains(menu)) return;
-        activeMenus.add(menu);
+        registry.add(menu);
+        startSweeper();
+    }
+
+    /**
+     * Запускает периодическую очистку реестра при первом активном меню,
+     * чтобы сервис можно было создавать до включения плагина.
+     */
+    private void startSweeper() {
+        if (sweeper != null) return;
+        sweeper = Bukkit.getScheduler().runTaskTimer(plugin, this::sweep, SWEEP_PERIOD, SWEEP_PERIOD);
     }
 
     public void removeActiveMenu(Menu menu) {
-        activeMenus.remove(menu);
+        registry.remove(menu);
+        synchronized (dirtyMenus) {
+            dirtyMenus.remove(menu);
+        }
     }
 
     public boolean hasActiveMenu(Menu menu) {
-        return activeMenus.contains(menu);
+        return registry.contains(menu);
     }
 
     public void openMenu(Menu menu, Player player) {
@@ -46,9 +77,197 @@ public class MenuService implements Serializable, Listener {
         menu.open(player);
     }
 
+    /**
+     * Открывает меню, собрав его предметы вне основного потока, см. {@link Menu#openAsync(Player)}.
+     * @param menu меню.
+     * @param player игрок.
+     * @return future, завершающийся после открытия инвентаря.
+     */
+    public CompletableFuture<Void> openMenuAsync(Menu menu, Player player) {
+        menu.setMenuService(this);
+        addActiveMenu(menu);
+        pendingOpens.add(menu);
+        return menu.openAsync(player).whenComplete((ignored, error) -> {
+            pendingOpens.remove(menu);
+            if (error != null) {
+                log.error("Ошибка при открытии меню {}", menu.getId(), error);
+            }
+        });
+    }
+
+    /**
+     * Возвращает меню этого сервиса, открытое у игрока.
+     * Индекс обновляется слушателем меню при открытии и закрытии инвентаря,
+     * ссылки на меню слабые, записи закрытых меню удаляются при {@link #sweep()}.
+     * @param uuid UUID игрока.
+     * @return меню или null, если у игрока не открыто меню.
+     */
+    public Menu getViewedMenu(UUID uuid) {
+        return viewedMenus.get(uuid);
+    }
+
+    /**
+     * Запоминает меню, открытое у игрока.
+     * @param uuid UUID игрока.
+     * @param menu меню.
+     */
+    public void setViewedMenu(UUID uuid, Menu menu) {
+        viewedMenus.put(uuid, menu);
+    }
+
+    /**
+     * Забывает меню игрока. Если menu не null, запись удаляется только если игрок смотрит именно его.
+     * @param uuid UUID игрока.
+     * @param menu меню или null.
+     */
+    public void clearViewedMenu(UUID uuid, Menu menu) {
+        if (menu == null) {
+            viewedMenus.remove(uuid);
+        } else {
+            viewedMenus.remove(uuid, menu);
+        }
+    }
+
+    /**
+     * Возвращает меню этого сервиса, которое сейчас открыто у игрока.
+     * @param uuid UUID игрока.
+     * @return меню или null.
+     */
+    public Menu getOpenMenu(UUID uuid) {
+        Menu menu = viewedMenus.get(uuid);
+        return menu != null && registry.contains(menu) ? menu : null;
+    }
+
+    private static boolean isViewing(Menu menu, UUID viewer) {
+        for (HumanEntity human : menu.getInventory().getViewers()) {
+            if (human.getUniqueId().equals(viewer)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Возвращает активные меню с указанным id.
+     * @param id идентификатор меню.
+     * @return список меню.
+     */
+    public List<Menu> getActiveMenus(String id) {
+        return registry.getById(id);
+    }
+
+    public int getActiveMenuCount() {
+        return registry.size();
+    }
+
+    /**
+     * Удаляет из реестра меню без зрителей. Вызывается периодически,
+     * подстраховывая пути закрытия, которые не доходят до {@link #onInventoryClose(InventoryCloseEvent)}.
+     * Меню, которые ещё открываются через {@link #openMenuAsync(Menu, Player)}, не удаляются.
+     * @return количество удалённых меню.
+     */
+    public int sweep() {
+        List<Menu> removed = registry.sweep(pendingOpens::contains);
+        viewedMenus.entrySet().removeIf(entry -> !isViewing(entry.getValue(), entry.getKey()));
+        synchronized (dirtyMenus) {
+            removed.forEach(dirtyMenus::remove);
+        }
+        if (!removed.isEmpty()) log.debug("Удалено неактивных меню: {}", removed.size());
+        return removed.size();
+    }
+
+    /**
+     * Закрывает все меню и останавливает фоновые задачи сервиса. Вызывается при выключении плагина.
+     */
+    public void shutdown() {
+        if (sweeper != null) sweeper.cancel();
+        sweeper = null;
+        pendingOpens.clear();
+        for (Menu menu : registry.getMenus()) {
+            menu.close();
+        }
+        registry.clear();
+        viewedMenus.clear();
+        synchronized (dirtyMenus) {
+            dirtyMenus.clear();
+        }
+    }
+
+    /**
+     * Помечает меню для перерисовки на ближайшем тике.
+     * Повторные вызовы до перерисовки не создают новых задач, меню перерисовывается один раз.
+     * @param menu меню.
+     * @param player игрок, для которого рендерятся плейсхолдеры.
+     */
+    public void markDirty(Menu menu, Player player) {
+        synchronized (dirtyMenus) {
+            dirtyMenus.put(menu, player);
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        Bukkit.getScheduler().runTask(plugin, this::flush);
+    }
+
+    /**
+     * Устанавливает бюджет времени на перерисовку меню за один тик.
+     * Меню, не успевшие перерисоваться, переносятся на следующий тик.
+     * Ноль снимает ограничение.
+     * @param budget бюджет времени.
+     */
+    public void setTickBudget(Duration budget) {
+        this.tickBudgetNanos = budget.toNanos();
+    }
+
+    /**
+     * Перерисовывает помеченные меню. Вызывается планировщиком один раз за тик.
+     * Перерисовываются только меню, помеченные до начала вызова: повторная пометка во время перерисовки
+     * переносится на следующий тик. Хотя бы одно меню перерисовывается всегда, даже если бюджет уже исчерпан.
+     */
+    public void flush() {
+        Map<Menu, Player> batch;
+        synchronized (dirtyMenus) {
+            batch = new LinkedHashMap<>(dirtyMenus);
+            dirtyMenus.clear();
+            flushScheduled = false;
+        }
+
+        long deadline = tickBudgetNanos > 0 ? System.nanoTime() + tickBudgetNanos : Long.MAX_VALUE;
+        boolean first = true;
+        Iterator<Map.Entry<Menu, Player>> iterator = batch.entrySet().iterator();
+        while (iterator.hasNext() && (first || System.nanoTime() < deadline)) {
+            Map.Entry<Menu, Player> entry = iterator.next();
+            iterator.remove();
+            first = false;
+            try {
+                entry.getKey().renderChanges(entry.getValue());
+            } catch (Exception e) {
+                log.error("Ошибка при перерисовке меню {}", entry.getKey().getId(), e);
+            }
+        }
+
+        synchronized (dirtyMenus) {
+            if (!batch.isEmpty()) {
+                batch.putAll(dirtyMenus);
+                dirtyMenus.clear();
+                dirtyMenus.putAll(batch);
+            }
+            if (dirtyMenus.isEmpty() || flushScheduled) return;
+            flushScheduled = true;
+        }
+        Bukkit.getScheduler().runTask(plugin, this::flush);
+    }
+
+    /**
+     * Возвращает количество меню, ожидающих перерисовки.
+     * @return количество меню.
+     */
+    public int getDirtyCount() {
+        synchronized (dirtyMenus) {
+            return dirtyMenus.size();
+        }
+    }
+
     public void onInventoryClose(InventoryCloseEvent event) {
         Bukkit.getScheduler().runTask(plugin, ()->{
-            if (event.getInventory().getViewers().isEmpty())removeActiveMenu((Menu) event.getInventory().getHolder());
+            if (event.getInventory().getViewers().isEmpty() && !pendingOpens.contains(event.getInventory().getHolder()))removeActiveMenu((Menu) event.getInventory().getHolder());
         });
     }
 
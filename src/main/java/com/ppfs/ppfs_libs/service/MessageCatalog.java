@@ -0,0 +1,240 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.service;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import com.ppfs.ppfs_libs.models.configs.ConfigJSON;
+import com.ppfs.ppfs_libs.models.message.Message;
+import lombok.Getter;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerLocaleChangeEvent;
+import org.bukkit.plugin.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Каталог локализованных сообщений.
+ * Каждая локаль хранится в файле {@code <папка плагина>/<folder>/<locale>.json}
+ * вида {@code {"key": {"message": [...]}}}.
+ * Ключи сообщений индексируются в общую таблицу, а каждая локаль хранит сообщения в массиве по этим индексам,
+ * поэтому поиск сводится к одному обращению к карте ключей и одному к массиву.
+ * Локаль по умолчанию загружается сразу, остальные - асинхронно, когда впервые появляется игрок с такой локалью клиента.
+ * Пока локаль загружается, используются сообщения локали по умолчанию.
+ */
+public class MessageCatalog implements Listener {
+    private static final Logger log = LoggerFactory.getLogger(MessageCatalog.class);
+    private static final Type BUNDLE_TYPE = new TypeToken<LinkedHashMap<String, Message>>() {
+    }.getType();
+
+    @Getter
+    private final Plugin plugin;
+    @Getter
+    private final File folder;
+    @Getter
+    private final String defaultLocale;
+
+    private final Map<String, Integer> keys = new ConcurrentHashMap<>();
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private volatile Map<String, Bundle> bundles = Map.of();
+
+    /**
+     * @param plugin плагин-владелец файлов.
+     * @param folder папка с файлами локалей внутри папки плагина.
+     * @param defaultLocale локаль по умолчанию, например {@code ru_ru}.
+     */
+    public MessageCatalog(Plugin plugin, String folder, String defaultLocale) {
+        this.plugin = plugin;
+        this.folder = new File(plugin.getDataFolder(), folder);
+        this.defaultLocale = normalize(defaultLocale);
+        swap(this.defaultLocale, load(this.defaultLocale));
+        Bukkit.getPluginManager().registerEvents(this, plugin);
+    }
+
+    /**
+     * Возвращает сообщение на языке клиента игрока.
+     * Если локаль ещё не загружена или в ней нет ключа, возвращается сообщение из локали по умолчанию.
+     * Возвращаемый экземпляр общий для всех игроков, значения плейсхолдеров следует передавать
+     * через {@link Message#getComponent(Player, com.ppfs.ppfs_libs.models.message.PlaceholderScope)}.
+     * @param key ключ сообщения.
+     * @param player игрок, может быть null.
+     * @return сообщение или null, если ключ не найден ни в одной загруженной локали.
+     */
+    public Message get(String key, Player player) {
+        Integer index = keys.get(key);
+        return index != null ? get(index, player) : null;
+    }
+
+    /**
+     * Возвращает сообщение по заранее полученному индексу ключа.
+     * @param index индекс ключа из {@link #indexOf(String)}.
+     * @param player игрок, может быть null.
+     * @return сообщение или null.
+     */
+    public Message get(int index, Player player) {
+        Map<String, Bundle> current = bundles;
+        Message message = null;
+        if (player != null) {
+            String locale = normalize(player.getLocale());
+            Bundle bundle = current.get(locale);
+            if (bundle == null) {
+                preload(locale);
+            } else {
+                message = bundle.get(index);
+            }
+        }
+        if (message == null) {
+            Bundle fallback = current.get(defaultLocale);
+            if (fallback != null) message = fallback.get(index);
+        }
+        return message;
+    }
+
+    /**
+     * Возвращает сообщение на языке по умолчанию.
+     * @param key ключ сообщения.
+     * @return сообщение или null.
+     */
+    public Message get(String key) {
+        return get(key, null);
+    }
+
+    /**
+     * Возвращает индекс ключа, чтобы не искать его в карте при каждом обращении.
+     * @param key ключ сообщения.
+     * @return индекс или -1, если ключ не встречался ни в одной локали.
+     */
+    public int indexOf(String key) {
+        Integer index = keys.get(key);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Асинхронно загружает локаль, если она ещё не загружена.
+     * @param locale локаль клиента.
+     */
+    public void preload(String locale) {
+        String normalized = normalize(locale);
+        if (bundles.containsKey(normalized) || !loading.add(normalized)) return;
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                swap(normalized, load(normalized));
+            } finally {
+                loading.remove(normalized);
+            }
+        });
+    }
+
+    /**
+     * Перечитывает все загруженные локали в отдельном потоке и подменяет их целиком.
+     * До завершения загрузки используются старые сообщения, основной поток не блокируется.
+     * @return future, завершающийся после подмены.
+     */
+    public CompletableFuture<Void> reload() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Set<String> locales = new HashSet<>(bundles.keySet());
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                Map<String, Bundle> reloaded = new HashMap<>();
+                for (String locale : locales) {
+                    reloaded.put(locale, load(locale));
+                }
+                synchronized (this) {
+                    Map<String, Bundle> updated = new HashMap<>(bundles);
+                    updated.putAll(reloaded);
+                    bundles = Map.copyOf(updated);
+                }
+                log.info("Локали сообщений перезагружены: {}", locales);
+                future.complete(null);
+            } catch (Exception e) {
+                log.error("Ошибка при перезагрузке локалей сообщений.", e);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Возвращает загруженные локали.
+     * @return неизменяемый набор локалей.
+     */
+    public Set<String> getLoadedLocales() {
+        return bundles.keySet();
+    }
+
+    @EventHandler
+    public void onLocaleChange(PlayerLocaleChangeEvent event) {
+        preload(event.getLocale());
+    }
+
+    private synchronized void swap(String locale, Bundle bundle) {
+        Map<String, Bundle> updated = new HashMap<>(bundles);
+        updated.put(locale, bundle);
+        bundles = Map.copyOf(updated);
+    }
+
+    private Bundle load(String locale) {
+        File file = new File(folder, locale + ".json");
+        if (!file.exists()) {
+            if (locale.equals(defaultLocale)) log.warn("Файл локали по умолчанию не найден: {}", file.getAbsolutePath());
+            return new Bundle(new Message[0]);
+        }
+
+        Map<String, Message> messages;
+        try {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            messages = ConfigJSON.getGson().fromJson(content, BUNDLE_TYPE);
+        } catch (IOException | JsonSyntaxException e) {
+            log.error("Ошибка при загрузке локали из файла: {}", file.getAbsolutePath(), e);
+            return new Bundle(new Message[0]);
+        }
+        if (messages == null) return new Bundle(new Message[0]);
+
+        int[] indexes = new int[messages.size()];
+        int max = -1;
+        int i = 0;
+        for (String key : messages.keySet()) {
+            indexes[i] = index(key);
+            max = Math.max(max, indexes[i++]);
+        }
+
+        Message[] entries = new Message[max + 1];
+        i = 0;
+        for (Message message : messages.values()) {
+            entries[indexes[i++]] = message != null ? message.compile() : null;
+        }
+        return new Bundle(entries);
+    }
+
+    private int index(String key) {
+        Integer index = keys.get(key);
+        if (index != null) return index;
+        synchronized (keys) {
+            return keys.computeIfAbsent(key, k -> keys.size());
+        }
+    }
+
+    private static String normalize(String locale) {
+        return locale == null ? "" : locale.toLowerCase(Locale.ROOT).replace('-', '_');
+    }
+
+    private record Bundle(Message[] entries) {
+        private Message get(int index) {
+            return index >= 0 && index < entries.length ? entries[index] : null;
+        }
+    }
+}
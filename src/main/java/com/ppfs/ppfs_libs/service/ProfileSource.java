@@ -0,0 +1,41 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.service;
+
+import com.destroystokyo.paper.profile.PlayerProfile;
+import com.destroystokyo.paper.profile.ProfileProperty;
+import org.bukkit.Bukkit;
+
+import java.util.UUID;
+
+/**
+ * Источник текстур профилей игроков для {@link SkullProfileResolver}.
+ * Вызывается вне основного потока и может блокироваться на сетевом запросе.
+ */
+@FunctionalInterface
+public interface ProfileSource {
+
+    /**
+     * Возвращает значение текстуры скина игрока.
+     * @param uuid UUID игрока.
+     * @return значение свойства {@code textures} или null, если профиль не найден.
+     */
+    String fetchTexture(UUID uuid);
+
+    /**
+     * Источник по умолчанию: заполняет профиль через Paper API.
+     * @return источник профилей.
+     */
+    static ProfileSource paper() {
+        return uuid -> {
+            PlayerProfile profile = Bukkit.createProfile(uuid);
+            if (!profile.complete(true)) return null;
+            for (ProfileProperty property : profile.getProperties()) {
+                if (property.getName().equals("textures")) return property.getValue();
+            }
+            return null;
+        };
+    }
+}
@@ -0,0 +1,193 @@
+// PPFS_Libs Plugin
+// Авторские права (c) 2024 PPFSS
+// Лицензия: MIT
+
+package com.ppfs.ppfs_libs.service;
+
+import com.ppfs.ppfs_libs.PPFS_Libs;
+import org.bukkit.Bukkit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Асинхронное получение текстур голов игроков по UUID.
+ * Полученные текстуры хранятся в памяти и в компактном бинарном файле,
+ * поэтому после перезапуска сервера профили повторно не запрашиваются, пока не истечёт срок записи.
+ * Неудачные запросы запоминаются только в памяти и на короткое время.
+ */
+public final class SkullProfileResolver {
+    private static final Logger log = LoggerFactory.getLogger(SkullProfileResolver.class);
+    private static final int FILE_VERSION = 1;
+    private static final long FAILURE_TTL = Duration.ofMinutes(10).toMillis();
+    private static final SkullProfileResolver instance = new SkullProfileResolver();
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<UUID, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    private volatile ProfileSource source = ProfileSource.paper();
+    private volatile long ttlMillis = Duration.ofDays(3).toMillis();
+    private volatile File file;
+
+    private SkullProfileResolver() {
+    }
+
+    public static SkullProfileResolver getInstance() {
+        return instance;
+    }
+
+    /**
+     * Возвращает текстуру из кэша, не выполняя запросов.
+     * @param uuid UUID игрока.
+     * @return значение текстуры или null, если её нет в кэше или срок записи истёк.
+     */
+    public String getCached(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry == null || entry.texture() == null || System.currentTimeMillis() >= entry.expiresAt()) return null;
+        return entry.texture();
+    }
+
+    /**
+     * Получает текстуру игрока в отдельном потоке. Одновременные запросы одного UUID объединяются.
+     * @param uuid UUID игрока.
+     * @return future с текстурой или null, если профиль получить не удалось.
+     */
+    public CompletableFuture<String> resolve(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        if (entry != null && System.currentTimeMillis() < entry.expiresAt()) {
+            return CompletableFuture.completedFuture(entry.texture());
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(uuid, future);
+        if (existing != null) return existing;
+
+        Bukkit.getScheduler().runTaskAsynchronously(PPFS_Libs.getInstance(), () -> {
+            String texture = null;
+            try {
+                texture = source.fetchTexture(uuid);
+            } catch (Exception e) {
+                log.warn("Не удалось получить профиль игрока {}", uuid, e);
+            }
+            long ttl = texture != null ? ttlMillis : FAILURE_TTL;
+            entries.put(uuid, new Entry(texture, System.currentTimeMillis() + ttl));
+            inFlight.remove(uuid, future);
+            future.complete(texture);
+            if (texture != null) scheduleSave();
+        });
+        return future;
+    }
+
+    /**
+     * Заменяет источник профилей, например на локальную заглушку.
+     * @param source источник профилей.
+     * @return текущий экземпляр.
+     */
+    public SkullProfileResolver setSource(ProfileSource source) {
+        this.source = source;
+        return this;
+    }
+
+    /**
+     * Устанавливает срок хранения полученной текстуры.
+     * @param ttl срок хранения.
+     * @return текущий экземпляр.
+     */
+    public SkullProfileResolver setTtl(Duration ttl) {
+        this.ttlMillis = ttl.toMillis();
+        return this;
+    }
+
+    /**
+     * Загружает кэш из файла. Просроченные записи пропускаются.
+     * Последующие изменения сохраняются в этот же файл.
+     * @param file файл кэша.
+     */
+    public void load(File file) {
+        this.file = file;
+        if (!file.exists()) return;
+
+        long now = System.currentTimeMillis();
+        Map<UUID, Entry> loaded = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                log.warn("Неизвестная версия файла кэша голов, файл пропущен: {}", file.getAbsolutePath());
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                long expiresAt = in.readLong();
+                String texture = in.readUTF();
+                if (expiresAt > now) loaded.put(uuid, new Entry(texture, expiresAt));
+            }
+        } catch (IOException e) {
+            log.error("Ошибка при загрузке кэша голов из файла: {}", file.getAbsolutePath(), e);
+            return;
+        }
+        loaded.forEach(entries::putIfAbsent);
+        log.info("Загружено профилей голов: {}", loaded.size());
+    }
+
+    /**
+     * Сохраняет непросроченные успешные записи в файл кэша.
+     */
+    public synchronized void save() {
+        File target = file;
+        if (target == null) return;
+
+        long now = System.currentTimeMillis();
+        Map<UUID, Entry> snapshot = new HashMap<>();
+        entries.forEach((uuid, entry) -> {
+            if (entry.texture() != null && entry.expiresAt() > now) snapshot.put(uuid, entry);
+        });
+
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try {
+            Files.createDirectories(target.getParentFile().toPath());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<UUID, Entry> entry : snapshot.entrySet()) {
+                    out.writeLong(entry.getKey().getMostSignificantBits());
+                    out.writeLong(entry.getKey().getLeastSignificantBits());
+                    out.writeLong(entry.getValue().expiresAt());
+                    out.writeUTF(entry.getValue().texture());
+                }
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Ошибка при сохранении кэша голов в файл: {}", target.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Удаляет запись игрока из кэша.
+     * @param uuid UUID игрока.
+     */
+    public void invalidate(UUID uuid) {
+        entries.remove(uuid);
+    }
+
+    private void scheduleSave() {
+        if (file == null || !saveScheduled.compareAndSet(false, true)) return;
+        Bukkit.getScheduler().runTaskAsynchronously(PPFS_Libs.getInstance(), () -> {
+            saveScheduled.set(false);
+            save();
+        });
+    }
+
+    private record Entry(String texture, long expiresAt) {
+    }
+}